@@ -0,0 +1,123 @@
+package com.wjholden.ospf;
+
+import org.neo4j.graphdb.GraphDatabaseService;
+
+import java.util.*;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.IntStream;
+
+/**
+ * Weighted betweenness centrality of routers, transit networks and links, with traffic split the way ECMP splits
+ * it. Paths are OSPF shortest paths by cost. Each ordered pair of routers sends one unit of traffic, and every
+ * router divides what it forwards evenly between its equal-cost next hops; a next hop across a transit network is
+ * the router on the far side. Where one next hop leads to two paths and another to one, each still gets 1/2,
+ * where Brandes' path counting would give 2/3 and 1/3.
+ *
+ * The flows are those of TrafficSimulation with one unit between every pair of routers: one reverse SPF per
+ * destination carries the traffic of all sources at once. Only paths between routers are counted: networks are
+ * transit points, never sources or destinations. Links are directed, so each ordered pair of routers is counted
+ * once and scores are not normalised.
+ */
+public class Betweenness {
+    static final String ROUTER_SCORES = "MATCH (n:ROUTER {name:row.name}) SET n.betweenness = row.score";
+    static final String NETWORK_SCORES = "MATCH (n:NETWORK {name:row.name}) SET n.betweenness = row.score";
+    // Keyed by the labels of the source and destination, like ROUTER_EDGES, NETWORK_EDGES and TRANSPORT_EDGES.
+    static final String LINK_SCORES = "MATCH (src:%s {name:row.src})-[l:LINKED]->(dst:%s {name:row.dst})\n" +
+            "SET l.betweenness = row.score";
+
+    private final Topology topology;
+    public final double[] node;
+    public final double[] edge;
+
+    private Betweenness(Topology topology, double[] node, double[] edge) {
+        this.topology = topology;
+        this.node = node;
+        this.edge = edge;
+    }
+
+    /**
+     * Route the traffic to every router, in parallel on the given pool. Each worker adds into its own load array,
+     * and the arrays are summed at the end.
+     */
+    public static Betweenness compute(Topology topology, ForkJoinPool pool) throws InterruptedException {
+        final long start = System.nanoTime();
+
+        final Accumulator total;
+        try {
+            total = pool.submit(() -> IntStream.range(0, topology.routerCount).parallel()
+                    .collect(() -> new Accumulator(topology), Accumulator::accept,
+                            Accumulator::add)).get();
+        } catch (ExecutionException ex) {
+            throw new RuntimeException(ex.getCause());
+        }
+
+        // Whatever enters a node passes through it, unless the node is where it was going.
+        final double[] edge = total.worker.load;
+        final double[] node = new double[topology.nodeCount];
+        for (int v = 0 ; v < topology.nodeCount ; v++) {
+            double in = 0;
+            for (int j = topology.inOffsets[v] ; j < topology.inOffsets[v + 1] ; j++) {
+                in += edge[topology.inEdges[j]];
+            }
+            node[v] = Math.max(0, in - total.arrived[v]);
+        }
+        OspfAnalyzer.report("betweenness", topology.routerCount, "destinations", start);
+        return new Betweenness(topology, node, edge);
+    }
+
+    /**
+     * The link loads of one worker, and how much traffic ended at each router.
+     */
+    private static final class Accumulator {
+        final TrafficSimulation.Worker worker;
+        final double[] arrived;
+
+        Accumulator(Topology topology) {
+            worker = new TrafficSimulation.Worker(topology);
+            arrived = new double[topology.nodeCount];
+        }
+
+        void accept(int destination) {
+            arrived[destination] += worker.routeFromAll(destination);
+        }
+
+        void add(Accumulator other) {
+            worker.add(other.worker);
+            for (int v = 0 ; v < arrived.length ; v++) arrived[v] += other.arrived[v];
+        }
+    }
+
+    /**
+     * Store the scores as a betweenness property on the ROUTER and NETWORK nodes and LINKED relationships.
+     */
+    public void write(GraphDatabaseService graphDb) {
+        final long start = System.nanoTime();
+        final List<Map<String, Object>> routers = new ArrayList<>(), networks = new ArrayList<>();
+        for (int v = 0 ; v < topology.nodeCount ; v++) {
+            final Map<String, Object> row = new HashMap<>(4);
+            row.put("name", topology.names[v]);
+            row.put("score", node[v]);
+            (topology.isRouter(v) ? routers : networks).add(row);
+        }
+
+        final Map<String, List<Map<String, Object>>> links = new LinkedHashMap<>();
+        for (int e = 0 ; e < edge.length ; e++) {
+            final int u = topology.sources[e], v = topology.targets[e];
+            final Map<String, Object> row = new HashMap<>(4);
+            row.put("src", topology.names[u]);
+            row.put("dst", topology.names[v]);
+            row.put("score", edge[e]);
+            links.computeIfAbsent(String.format(LINK_SCORES, label(u), label(v)), k -> new ArrayList<>()).add(row);
+        }
+
+        OspfAnalyzer.writeBatches(graphDb, ROUTER_SCORES, routers);
+        OspfAnalyzer.writeBatches(graphDb, NETWORK_SCORES, networks);
+        links.forEach((query, rows) -> OspfAnalyzer.writeBatches(graphDb, query, rows));
+        OspfAnalyzer.report("betweennessWrite", topology.nodeCount + edge.length, "scores", start);
+    }
+
+    private String label(int node) {
+        return topology.isRouter(node) ? "ROUTER" : "NETWORK";
+    }
+}
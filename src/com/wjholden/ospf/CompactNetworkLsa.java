@@ -0,0 +1,53 @@
+package com.wjholden.ospf;
+
+import java.net.UnknownHostException;
+import java.nio.ByteBuffer;
+
+/**
+ * A Type 2 (Network) LSA with int-encoded addresses. See CompactRouterLsa.
+ */
+public class CompactNetworkLsa extends Lsa {
+    public final int designatedRouter, mask, prefix, prefixLength;
+    private final int[] attachedRouters;
+
+    public CompactNetworkLsa(ByteBuffer lsa) {
+        super(lsa);
+        designatedRouter = linkStateId;
+        mask = buffer.getInt(20);
+
+        final int base = 6 * 4;
+        attachedRouters = new int[(length - base) / 4];
+        for (int i = 0 ; i < attachedRouters.length ; i++) {
+            attachedRouters[i] = buffer.getInt(base + 4 * i);
+        }
+
+        prefixLength = getPrefixLength(mask);
+        prefix = designatedRouter & mask;
+    }
+
+    public int attachedRouterCount() {
+        return attachedRouters.length;
+    }
+
+    public int attachedRouter(int i) {
+        return attachedRouters[i];
+    }
+
+    public String getPrefix() {
+        return toDottedQuad(prefix) + "/" + prefixLength;
+    }
+
+    public NetworkLsa toNetworkLsa() throws UnknownHostException {
+        return new NetworkLsa(getBuffer());
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder s = new StringBuilder(String.format("[Network %s; DR=%s]", getPrefix(),
+                toDottedQuad(designatedRouter)));
+        for (int r : attachedRouters) {
+            s.append("\n * ").append(toDottedQuad(r));
+        }
+        return s.toString();
+    }
+}
@@ -0,0 +1,68 @@
+package com.wjholden.ospf;
+
+import java.net.UnknownHostException;
+import java.nio.ByteBuffer;
+
+/**
+ * A Type 1 (Router) LSA that stores its links in one packed int array instead of a list of Link objects.
+ * Link i occupies three slots: the Link ID, the Link Data, and the type and metric packed together.
+ * Nothing is converted to InetAddress or String until you ask for it.
+ */
+public class CompactRouterLsa extends Lsa {
+    public final int routerId;
+    public final int links;
+    private final int[] packed;
+
+    public CompactRouterLsa(ByteBuffer lsa) {
+        super(lsa);
+
+        routerId = linkStateId;
+        links = Short.toUnsignedInt(buffer.getShort(22));
+        packed = new int[links * 3];
+
+        int offset = 6 * 4;
+        for (int i = 0 ; i < links ; i++) {
+            packed[3 * i] = buffer.getInt(offset);
+            packed[3 * i + 1] = buffer.getInt(offset + 4);
+            final int type = Byte.toUnsignedInt(buffer.get(offset + 8));
+            final int tosCount = Byte.toUnsignedInt(buffer.get(offset + 9));
+            final int metric = Short.toUnsignedInt(buffer.getShort(offset + 10));
+            packed[3 * i + 2] = (type << 16) | metric;
+            // Skip over any additional TOS metrics, https://datatracker.ietf.org/doc/html/rfc2328#appendix-A.4.2.
+            offset += 12 + 4 * tosCount;
+        }
+    }
+
+    public int linkId(int i) {
+        return packed[3 * i];
+    }
+
+    public int linkData(int i) {
+        return packed[3 * i + 1];
+    }
+
+    public int linkType(int i) {
+        return packed[3 * i + 2] >>> 16;
+    }
+
+    public int metric(int i) {
+        return packed[3 * i + 2] & 0xffff;
+    }
+
+    /**
+     * Parse the same bytes again into the heap-heavy representation used by the graph loader.
+     */
+    public RouterLsa toRouterLsa() throws UnknownHostException {
+        return new RouterLsa(getBuffer());
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder s = new StringBuilder(String.format("[Router ID %s]", toDottedQuad(routerId)));
+        for (int i = 0 ; i < links ; i++) {
+            s.append(String.format("%n * [Type %d] [Metric = %d] %s %s", linkType(i), metric(i),
+                    toDottedQuad(linkId(i)), toDottedQuad(linkData(i))));
+        }
+        return s.toString();
+    }
+}
@@ -0,0 +1,40 @@
+package com.wjholden.ospf;
+
+import java.nio.ByteBuffer;
+
+/**
+ * A Type 5 (AS-external) LSA, https://datatracker.ietf.org/doc/html/rfc2328#appendix-A.4.5, or the Type 7 NSSA
+ * equivalent, which has the same layout. Addresses are ints. ExternalTable copies the fields into primitive arrays
+ * for loading the graph; the LSDB map still holds these objects, since refreshes and diffs compare them.
+ */
+public class ExternalLsa extends Lsa {
+    public final int mask, prefixLength, metric, forwardingAddress, routeTag;
+    // E-bit set means a type 2 external metric, which is not added to the cost of reaching the ASBR.
+    public final boolean type2Metric;
+
+    public ExternalLsa(ByteBuffer lsa) {
+        super(lsa);
+        mask = buffer.getInt(20);
+        prefixLength = getPrefixLength(mask);
+        final int word = buffer.getInt(24);
+        type2Metric = (word & 0x80000000) != 0;
+        metric = word & 0xffffff;
+        forwardingAddress = buffer.getInt(28);
+        routeTag = buffer.getInt(32);
+    }
+
+    public int getPrefixAddress() {
+        return linkStateId & mask;
+    }
+
+    public String getPrefix() {
+        return toDottedQuad(getPrefixAddress()) + "/" + prefixLength;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("[External %s; ASBR=%s; Metric = %d (E%d); FA=%s; Tag=%d]", getPrefix(),
+                toDottedQuad(advertisingRouter), metric, type2Metric ? 2 : 1, toDottedQuad(forwardingAddress),
+                Integer.toUnsignedLong(routeTag));
+    }
+}
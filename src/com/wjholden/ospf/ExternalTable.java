@@ -0,0 +1,93 @@
+package com.wjholden.ospf;
+
+import java.util.*;
+
+/**
+ * AS-external routes in columnar form: one primitive array per field, 24 bytes per route. It is a compact working
+ * copy for loading and aggregating externals, not a replacement for the ExternalLsa objects, which the LSDB map
+ * still holds; building it adds to the heap rather than saving any.
+ */
+public final class ExternalTable {
+    private int size = 0;
+    private int[] prefix = new int[1024], prefixLength = new int[1024], metric = new int[1024];
+    private int[] forwardingAddress = new int[1024], routeTag = new int[1024], asbr = new int[1024];
+
+    public static ExternalTable of(Collection<Lsa> lsdb) {
+        final ExternalTable table = new ExternalTable();
+        for (Lsa lsa : lsdb) {
+            if (lsa instanceof ExternalLsa) {
+                table.add((ExternalLsa) lsa);
+            }
+        }
+        return table;
+    }
+
+    public void add(ExternalLsa lsa) {
+        if (size == prefix.length) {
+            final int capacity = size * 2;
+            prefix = Arrays.copyOf(prefix, capacity);
+            prefixLength = Arrays.copyOf(prefixLength, capacity);
+            metric = Arrays.copyOf(metric, capacity);
+            forwardingAddress = Arrays.copyOf(forwardingAddress, capacity);
+            routeTag = Arrays.copyOf(routeTag, capacity);
+            asbr = Arrays.copyOf(asbr, capacity);
+        }
+        prefix[size] = lsa.getPrefixAddress();
+        prefixLength[size] = lsa.prefixLength;
+        // Keep the E-bit in the top bit of the metric, as it is on the wire.
+        metric[size] = lsa.metric | (lsa.type2Metric ? 0x80000000 : 0);
+        forwardingAddress[size] = lsa.forwardingAddress;
+        routeTag[size] = lsa.routeTag;
+        asbr[size] = lsa.advertisingRouter;
+        size++;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public int prefix(int i) {
+        return prefix[i];
+    }
+
+    public int prefixLength(int i) {
+        return prefixLength[i];
+    }
+
+    public int metric(int i) {
+        return metric[i] & 0xffffff;
+    }
+
+    public boolean type2Metric(int i) {
+        return metric[i] < 0;
+    }
+
+    public int forwardingAddress(int i) {
+        return forwardingAddress[i];
+    }
+
+    public int routeTag(int i) {
+        return routeTag[i];
+    }
+
+    public int asbr(int i) {
+        return asbr[i];
+    }
+
+    public String getPrefix(int i) {
+        return Lsa.toDottedQuad(prefix[i]) + "/" + prefixLength[i];
+    }
+
+    /**
+     * @return how many routes each ASBR originates, along with the lowest metric among them, as {count, min}.
+     */
+    public Map<Integer, int[]> byAsbr() {
+        final Map<Integer, int[]> asbrs = new HashMap<>();
+        for (int i = 0 ; i < size ; i++) {
+            final int[] entry = asbrs.computeIfAbsent(asbr[i], k -> new int[] {0, Integer.MAX_VALUE});
+            entry[0]++;
+            entry[1] = Math.min(entry[1], metric(i));
+        }
+        return asbrs;
+    }
+}
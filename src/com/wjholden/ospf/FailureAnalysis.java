@@ -0,0 +1,152 @@
+package com.wjholden.ospf;
+
+import java.io.PrintWriter;
+import java.util.*;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+/**
+ * Simulates the failure of every node and every link, one at a time, and ranks the scenarios by how badly they
+ * hurt: first by how many router pairs can no longer reach each other, then by how much path cost grew.
+ *
+ * SPF is only re-run for roots whose shortest-path DAG actually used the failed element; every other root's
+ * distances cannot change. Scenarios run in parallel.
+ */
+public class FailureAnalysis {
+    private final SpfEngine spf;
+    private final Topology topology;
+    // Baseline distance from every router to every router.
+    private final int[][] dist;
+    // Edges on some shortest path, per root.
+    private final BitSet[] dag;
+
+    public static final class Scenario {
+        public final String name;
+        public final int affectedRoots;
+        public final long lostPairs, regressedPairs, totalCostIncrease;
+        public final int maxCostIncrease;
+
+        Scenario(String name, int affectedRoots, long lostPairs, long regressedPairs, long totalCostIncrease,
+                 int maxCostIncrease) {
+            this.name = name;
+            this.affectedRoots = affectedRoots;
+            this.lostPairs = lostPairs;
+            this.regressedPairs = regressedPairs;
+            this.totalCostIncrease = totalCostIncrease;
+            this.maxCostIncrease = maxCostIncrease;
+        }
+
+        @Override
+        public String toString() {
+            return name + "\t" + affectedRoots + "\t" + lostPairs + "\t" + regressedPairs + "\t" +
+                    totalCostIncrease + "\t" + maxCostIncrease;
+        }
+    }
+
+    public FailureAnalysis(SpfEngine spf, ForkJoinPool pool) throws InterruptedException {
+        this.spf = spf;
+        this.topology = spf.getTopology();
+        final int routers = topology.routerCount;
+        dist = new int[routers][];
+        dag = new BitSet[routers];
+        run(pool, () -> IntStream.range(0, routers).parallel().forEach(root -> {
+            final SpfEngine.ShortestPathTree tree = spf.compute(root);
+            dist[root] = Arrays.copyOf(tree.dist, routers);
+            dag[root] = dagEdges(tree);
+        }));
+    }
+
+    private BitSet dagEdges(SpfEngine.ShortestPathTree tree) {
+        final BitSet edges = new BitSet(topology.edgeCount());
+        for (int e = 0 ; e < topology.edgeCount() ; e++) {
+            final int u = topology.sources[e], v = topology.targets[e];
+            if (tree.reachable(u) && tree.dist[u] + topology.costs[e] == tree.dist[v]) {
+                edges.set(e);
+            }
+        }
+        return edges;
+    }
+
+    /**
+     * @return every node and link failure, worst first.
+     */
+    public List<Scenario> analyze(ForkJoinPool pool) throws InterruptedException {
+        final long start = System.nanoTime();
+        final List<Scenario> scenarios = Collections.synchronizedList(new ArrayList<>());
+
+        // A link is an edge together with its reverse; only simulate each pair once.
+        final int[] links = IntStream.range(0, topology.edgeCount())
+                .filter(e -> topology.reverse[e] < 0 || topology.reverse[e] > e)
+                .toArray();
+
+        run(pool, () -> {
+            IntStream.range(0, topology.nodeCount).parallel()
+                    .forEach(node -> scenarios.add(simulate(topology.names[node], node, -1)));
+            Arrays.stream(links).parallel()
+                    .forEach(e -> scenarios.add(simulate(topology.names[topology.sources[e]] + " -- " +
+                            topology.names[topology.targets[e]], -1, e)));
+        });
+
+        final List<Scenario> ranked = scenarios.stream()
+                .sorted(Comparator.comparingLong((Scenario s) -> s.lostPairs).reversed()
+                        .thenComparing(Comparator.comparingLong((Scenario s) -> s.totalCostIncrease).reversed())
+                        .thenComparing(s -> s.name))
+                .collect(Collectors.toList());
+        OspfAnalyzer.report("failures", ranked.size(), "scenarios", start);
+        return ranked;
+    }
+
+    private Scenario simulate(String name, int failedNode, int failedEdge) {
+        final int reverse = failedEdge >= 0 ? topology.reverse[failedEdge] : -1;
+        int affected = 0;
+        long lost = 0, regressed = 0, increase = 0;
+        int maxIncrease = 0;
+
+        for (int root = 0 ; root < topology.routerCount ; root++) {
+            if (root == failedNode || !uses(root, failedNode, failedEdge, reverse)) continue;
+            affected++;
+
+            final int[] after = spf.compute(root, failedNode, failedEdge).dist;
+            final int[] before = dist[root];
+            for (int v = 0 ; v < before.length ; v++) {
+                if (v == failedNode || before[v] == Integer.MAX_VALUE) continue;
+                if (after[v] == Integer.MAX_VALUE) {
+                    lost++;
+                } else if (after[v] > before[v]) {
+                    regressed++;
+                    increase += after[v] - before[v];
+                    maxIncrease = Math.max(maxIncrease, after[v] - before[v]);
+                }
+            }
+        }
+        return new Scenario(name, affected, lost, regressed, increase, maxIncrease);
+    }
+
+    private boolean uses(int root, int node, int edge, int reverse) {
+        final BitSet edges = dag[root];
+        if (node >= 0) {
+            // A failed node only matters if some shortest path continues through it.
+            for (int e = topology.offsets[node] ; e < topology.offsets[node + 1] ; e++) {
+                if (edges.get(e)) return true;
+            }
+            return false;
+        }
+        return edges.get(edge) || (reverse >= 0 && edges.get(reverse));
+    }
+
+    public static void write(List<Scenario> scenarios, PrintWriter out) {
+        out.println("scenario\taffected roots\tlost pairs\tregressed pairs\ttotal cost increase\tmax cost increase");
+        scenarios.forEach(out::println);
+        out.flush();
+    }
+
+    private static void run(ForkJoinPool pool, Runnable task) throws InterruptedException {
+        try {
+            pool.submit(task).get();
+        } catch (ExecutionException ex) {
+            throw new RuntimeException(ex.getCause());
+        }
+    }
+}
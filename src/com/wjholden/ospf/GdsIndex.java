@@ -0,0 +1,99 @@
+package com.wjholden.ospf;
+
+import org.neo4j.graphalgo.BaseProc;
+import org.reflections.Reflections;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.*;
+
+/**
+ * A precomputed list of the GDS procedure classes, so that startup does not have to scan the classpath.
+ *
+ * Regenerate it whenever the GDS library changes by running this class's main method (the GdsIndex run
+ * configuration) before building the jar. It writes src/META-INF/gds-procedures.index, which ends up in the jar next
+ * to the manifest. If the jar has no index, registerGds scans once and keeps the result in a cache file named after
+ * the jar the GDS classes came from, so only the first start after each build pays for the scan.
+ */
+public final class GdsIndex {
+    static final String RESOURCE = "/META-INF/gds-procedures.index";
+    static final String[] PACKAGES = {"org.neo4j.graphalgo", "org.neo4j.gds.embeddings", "org.neo4j.gds.paths"};
+
+    private GdsIndex() {
+    }
+
+    public static void main(String[] args) throws IOException {
+        final Path path = Paths.get(args.length > 0 ? args[0] : "src" + RESOURCE);
+        System.out.println("Wrote " + write(path, scan()) + " procedure classes to " + path);
+    }
+
+    /**
+     * Find every procedure (class that extends BaseProc) the slow way.
+     */
+    static Set<Class<? extends BaseProc>> scan() {
+        final Set<Class<? extends BaseProc>> procedures = new HashSet<>();
+        for (String p : PACKAGES) {
+            procedures.addAll(new Reflections(p).getSubTypesOf(BaseProc.class));
+        }
+        return procedures;
+    }
+
+    /**
+     * @return the class names in the index, or null if there is no index on the classpath.
+     */
+    static List<String> load() throws IOException {
+        final InputStream in = GdsIndex.class.getResourceAsStream(RESOURCE);
+        return in == null ? null : read(in);
+    }
+
+    /**
+     * @return the class names from the cache written by an earlier scan of the same GDS jar, or null.
+     */
+    static List<String> loadCache() throws IOException {
+        final Path cache = cache();
+        return Files.isRegularFile(cache) ? read(Files.newInputStream(cache)) : null;
+    }
+
+    static void writeCache(Collection<Class<? extends BaseProc>> procedures) throws IOException {
+        final Path cache = cache();
+        Files.createDirectories(cache.getParent());
+        write(cache, procedures);
+    }
+
+    private static int write(Path path, Collection<Class<? extends BaseProc>> procedures) throws IOException {
+        final Set<String> names = new TreeSet<>();
+        procedures.forEach(c -> names.add(c.getName()));
+        Files.write(path, names, StandardCharsets.UTF_8);
+        return names.size();
+    }
+
+    /**
+     * A cache file in ~/.ospf-analyzer named after the location, size and modification time of the jar (or
+     * directory) BaseProc was loaded from, so that a rebuilt jar or a GDS upgrade is scanned again.
+     */
+    private static Path cache() throws IOException {
+        final Path home = Paths.get(System.getProperty("user.home"), ".ospf-analyzer");
+        try {
+            final Path source = Paths.get(BaseProc.class.getProtectionDomain().getCodeSource().getLocation().toURI());
+            final String key = source.toAbsolutePath() + "|" + Files.size(source) + "|" +
+                    Files.getLastModifiedTime(source).toMillis();
+            return home.resolve(String.format("gds-procedures-%08x.index", key.hashCode()));
+        } catch (java.net.URISyntaxException | SecurityException | NullPointerException ex) {
+            throw new IOException("Cannot tell where the GDS classes were loaded from.", ex);
+        }
+    }
+
+    private static List<String> read(InputStream in) throws IOException {
+        final List<String> names = new ArrayList<>();
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (!line.trim().isEmpty()) names.add(line.trim());
+            }
+        }
+        return names;
+    }
+}
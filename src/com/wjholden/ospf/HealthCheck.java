@@ -0,0 +1,209 @@
+package com.wjholden.ospf;
+
+import java.net.InetAddress;
+import java.util.*;
+
+/**
+ * Consistency checks over the router and network LSAs, done in one pass over the LSDB instead of one graph scan
+ * per Cypher query:
+ * <ul>
+ *     <li>point-to-point links that only one end advertises (see "Get unidirectional edges" in the README),</li>
+ *     <li>point-to-point links whose two ends have different costs,</li>
+ *     <li>transit networks whose attached routers use different costs, and routers that claim a transit network
+ *     the network LSA does not list,</li>
+ *     <li>stub networks per router, and stubs advertised by more than one router.</li>
+ * </ul>
+ * The last report is kept along with a fingerprint of the LSAs it was made from, so checking an unchanged LSDB
+ * again costs one pass over the LSA headers.
+ */
+public class HealthCheck {
+    public enum Check {
+        UNIDIRECTIONAL, COST_MISMATCH, TRANSIT_COST_MISMATCH, ONE_WAY_TRANSIT, SHARED_STUB
+    }
+
+    public static final class Issue {
+        public final Check check;
+        public final String subject, detail;
+
+        Issue(Check check, String subject, String detail) {
+            this.check = check;
+            this.subject = subject;
+            this.detail = detail;
+        }
+
+        @Override
+        public String toString() {
+            return check + "\t" + subject + "\t" + detail;
+        }
+    }
+
+    public static final class Report {
+        public final long fingerprint;
+        public final int routers, networks, stubs;
+        public final List<Issue> issues;
+        public final Map<String, Integer> stubsPerRouter;
+
+        Report(long fingerprint, int routers, int networks, int stubs, List<Issue> issues,
+               Map<String, Integer> stubsPerRouter) {
+            this.fingerprint = fingerprint;
+            this.routers = routers;
+            this.networks = networks;
+            this.stubs = stubs;
+            this.issues = Collections.unmodifiableList(issues);
+            this.stubsPerRouter = Collections.unmodifiableMap(stubsPerRouter);
+        }
+
+        @Override
+        public String toString() {
+            final StringBuilder s = new StringBuilder();
+            s.append(String.format("%d routers, %d transit networks, %d stub networks, %d issues%n",
+                    routers, networks, stubs, issues.size()));
+            for (Issue issue : issues) {
+                s.append(issue).append('\n');
+            }
+            stubsPerRouter.forEach((router, count) -> s.append("STUBS\t").append(router).append('\t')
+                    .append(count).append('\n'));
+            return s.toString();
+        }
+
+        public String toJson() {
+            final StringBuilder s = new StringBuilder("{");
+            s.append("\"routers\":").append(routers).append(",\"networks\":").append(networks)
+                    .append(",\"stubs\":").append(stubs).append(",\"issues\":[");
+            for (int i = 0 ; i < issues.size() ; i++) {
+                final Issue issue = issues.get(i);
+                if (i > 0) s.append(',');
+                s.append("{\"check\":\"").append(issue.check).append("\",\"subject\":\"").append(issue.subject)
+                        .append("\",\"detail\":\"").append(issue.detail).append("\"}");
+            }
+            s.append("],\"stubsPerRouter\":{");
+            stubsPerRouter.forEach((router, count) -> {
+                if (s.charAt(s.length() - 1) != '{') s.append(',');
+                s.append('"').append(router).append("\":").append(count);
+            });
+            return s.append("}}").toString();
+        }
+    }
+
+    private Report last;
+
+    /**
+     * Check the LSDB, or return the previous report if its router and network LSAs have not changed since.
+     */
+    public synchronized Report check(Map<LsaKey, Lsa> lsdb) {
+        final long fingerprint = fingerprint(lsdb);
+        if (last == null || last.fingerprint != fingerprint) {
+            final long start = System.nanoTime();
+            last = analyze(lsdb, fingerprint);
+            OspfAnalyzer.report("healthCheck", lsdb.size(), "LSAs", start);
+        }
+        return last;
+    }
+
+    /**
+     * An order-independent hash of the key, sequence number and checksum of every router and network LSA.
+     */
+    static long fingerprint(Map<LsaKey, Lsa> lsdb) {
+        long h = 0;
+        for (Map.Entry<LsaKey, Lsa> entry : lsdb.entrySet()) {
+            final Lsa lsa = entry.getValue();
+            if (lsa.type != 1 && lsa.type != 2) continue;
+            long x = ((long) entry.getKey().hashCode() << 32) ^ (lsa.sequenceNumber & 0xffffffffL)
+                    ^ ((long) lsa.checksum << 40);
+            // SplitMix64 finaliser, so that summing does not cancel out related entries.
+            x = (x ^ (x >>> 30)) * 0xbf58476d1ce4e5b9L;
+            x = (x ^ (x >>> 27)) * 0x94d049bb133111ebL;
+            h += x ^ (x >>> 31);
+        }
+        return h;
+    }
+
+    private static Report analyze(Map<LsaKey, Lsa> lsdb, long fingerprint) {
+        final List<Issue> issues = new ArrayList<>();
+        final PrefixTrie<NetworkLsa> trie = new PrefixTrie<>();
+        final Set<Integer> routerIds = new HashSet<>();
+        int networks = 0;
+        for (Lsa lsa : lsdb.values()) {
+            if (lsa instanceof NetworkLsa) {
+                final NetworkLsa network = (NetworkLsa) lsa;
+                trie.put(Lsa.toInt(network.prefix), network.prefixLength, network);
+                networks++;
+            } else if (lsa instanceof RouterLsa) {
+                routerIds.add(lsa.advertisingRouter);
+            }
+        }
+
+        // Point-to-point costs by area and (router, neighbor), transit costs by network, stubs by prefix.
+        final Map<Integer, Map<Long, Integer>> pointToPoint = new HashMap<>();
+        final Map<NetworkLsa, Map<Integer, Integer>> transit = new IdentityHashMap<>();
+        final Map<String, List<String>> stubs = new TreeMap<>();
+        final Map<String, Integer> stubsPerRouter = new TreeMap<>();
+        for (Map.Entry<LsaKey, Lsa> entry : lsdb.entrySet()) {
+            if (!(entry.getValue() instanceof RouterLsa)) continue;
+            final RouterLsa lsa = (RouterLsa) entry.getValue();
+            final int u = lsa.advertisingRouter;
+            final Map<Long, Integer> area = pointToPoint.computeIfAbsent(entry.getKey().area, k -> new HashMap<>());
+            for (RouterLsa.Link link : lsa.adjacencies) {
+                if (link.type == 1) {
+                    area.merge(pair(u, Lsa.toInt(link.linkId)), link.metric, Math::min);
+                } else if (link.type == 2) {
+                    final NetworkLsa network = trie.longestMatch(Lsa.toInt(link.linkData));
+                    if (network != null) {
+                        transit.computeIfAbsent(network, k -> new TreeMap<>(Integer::compareUnsigned))
+                                .put(u, link.metric);
+                    }
+                } else if (link.type == 3) {
+                    final String prefix = Lsa.toDottedQuad(Lsa.toInt(link.linkId) & Lsa.toInt(link.linkData)) +
+                            "/" + Lsa.getPrefixLength(link.linkData);
+                    stubs.computeIfAbsent(prefix, k -> new ArrayList<>()).add(Lsa.toDottedQuad(u));
+                    stubsPerRouter.merge(Lsa.toDottedQuad(u), 1, Integer::sum);
+                }
+            }
+        }
+
+        pointToPoint.forEach((area, links) -> links.forEach((key, cost) -> {
+            final int u = (int) (key >>> 32), v = (int) (long) key;
+            final Integer back = links.get(pair(v, u));
+            final String subject = Lsa.toDottedQuad(u) + "->" + Lsa.toDottedQuad(v);
+            if (back == null) {
+                issues.add(new Issue(Check.UNIDIRECTIONAL, subject, routerIds.contains(v) ?
+                        "not advertised by " + Lsa.toDottedQuad(v) : "no router LSA for " + Lsa.toDottedQuad(v)));
+            } else if (!back.equals(cost) && Integer.compareUnsigned(u, v) < 0) {
+                issues.add(new Issue(Check.COST_MISMATCH, subject, cost + " vs " + back));
+            }
+        }));
+
+        transit.forEach((network, costs) -> {
+            final IntSummaryStatistics stats = costs.values().stream().mapToInt(Integer::intValue)
+                    .summaryStatistics();
+            if (stats.getMin() != stats.getMax()) {
+                double variance = 0;
+                for (int c : costs.values()) variance += (c - stats.getAverage()) * (c - stats.getAverage());
+                issues.add(new Issue(Check.TRANSIT_COST_MISMATCH, network.getPrefix(), String.format(
+                        "min %d, max %d, stdev %.2f over %d routers", stats.getMin(), stats.getMax(),
+                        Math.sqrt(variance / costs.size()), costs.size())));
+            }
+            final Set<Integer> attached = new HashSet<>();
+            for (InetAddress router : network.attachedRouters) attached.add(Lsa.toInt(router));
+            for (int u : costs.keySet()) {
+                if (!attached.contains(u)) {
+                    issues.add(new Issue(Check.ONE_WAY_TRANSIT, Lsa.toDottedQuad(u) + "->" + network.getPrefix(),
+                            "not listed in the network LSA"));
+                }
+            }
+        });
+
+        stubs.forEach((prefix, routers) -> {
+            if (routers.size() > 1) {
+                issues.add(new Issue(Check.SHARED_STUB, prefix, "advertised by " + String.join(",", routers)));
+            }
+        });
+
+        issues.sort(Comparator.comparing((Issue i) -> i.check).thenComparing(i -> i.subject));
+        return new Report(fingerprint, routerIds.size(), networks, stubs.size(), issues, stubsPerRouter);
+    }
+
+    private static long pair(int u, int v) {
+        return ((long) u << 32) | (v & 0xffffffffL);
+    }
+}
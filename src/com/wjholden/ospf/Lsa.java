@@ -2,29 +2,64 @@ package com.wjholden.ospf;
 
 import java.net.InetAddress;
 import java.net.UnknownHostException;
+import java.nio.ByteBuffer;
 
 public abstract class Lsa {
+    // The 20-byte LSA header, https://datatracker.ietf.org/doc/html/rfc2328#appendix-A.4.1.
+    // Addresses are kept as ints; use toInetAddress or toDottedQuad when you need something printable.
+    public final int age, options, type, linkStateId, advertisingRouter, sequenceNumber, checksum;
     public final int length;
 
+    // A view of exactly this LSA's bytes, starting at index 0. Subclasses read their bodies from here.
+    protected final ByteBuffer buffer;
+
     public Lsa(byte[] lsa) {
+        this(ByteBuffer.wrap(lsa));
+    }
+
+    /**
+     * Read the LSA header starting at the buffer's current position. The buffer is not copied
+     * and its position is not changed.
+     */
+    public Lsa(ByteBuffer lsa) {
+        buffer = lsa.slice();
 
         // Remember, Java's byte is signed so these can be negative.
-        length = bytesToUInt(lsa[18], lsa[19]);
+        age = Short.toUnsignedInt(buffer.getShort(0));
+        options = Byte.toUnsignedInt(buffer.get(2));
+        type = Byte.toUnsignedInt(buffer.get(3));
+        linkStateId = buffer.getInt(4);
+        advertisingRouter = buffer.getInt(8);
+        sequenceNumber = buffer.getInt(12);
+        checksum = Short.toUnsignedInt(buffer.getShort(16));
+        length = Short.toUnsignedInt(buffer.getShort(18));
         assert(length > 0);
-        assert(length == lsa.length);
+        assert(length == buffer.remaining());
+        Metrics.lsa(type, length);
     }
 
     public static Lsa getInstance(byte[] lsa) {
+        return getInstance(ByteBuffer.wrap(lsa));
+    }
+
+    public static Lsa getInstance(ByteBuffer lsa) {
         try {
             // The LSA type is in the third byte.
             // https://datatracker.ietf.org/doc/html/rfc2328#appendix-A.4.1
-            switch (lsa[3]) {
+            final byte type = lsa.get(lsa.position() + 3);
+            switch (type) {
                 case 1:
                     return new RouterLsa(lsa);
                 case 2:
                     return new NetworkLsa(lsa);
+                case 3:
+                case 4:
+                    return new SummaryLsa(lsa);
+                case 5:
+                case 7:
+                    return new ExternalLsa(lsa);
                 default:
-                    throw new UnsupportedOperationException("Type " + lsa[3] + " is not supported.");
+                    throw new UnsupportedOperationException("Type " + type + " is not supported.");
             }
         } catch (UnknownHostException ex) {
             ex.printStackTrace();
@@ -32,10 +67,109 @@ public abstract class Lsa {
         }
     }
 
+    /**
+     * Like getInstance, but the result keeps addresses as ints and links in primitive arrays, so parsing allocates
+     * no InetAddress or per-link objects. Use this for very large LSDBs.
+     */
+    public static Lsa getCompactInstance(ByteBuffer lsa) {
+        final byte type = lsa.get(lsa.position() + 3);
+        switch (type) {
+            case 1:
+                return new CompactRouterLsa(lsa);
+            case 2:
+                return new CompactNetworkLsa(lsa);
+            case 3:
+            case 4:
+                // These are compact already.
+                return new SummaryLsa(lsa);
+            case 5:
+            case 7:
+                return new ExternalLsa(lsa);
+            default:
+                throw new UnsupportedOperationException("Type " + type + " is not supported.");
+        }
+    }
+
+    /**
+     * @return a duplicate of this LSA's bytes, positioned at the start of the LSA.
+     */
+    public ByteBuffer getBuffer() {
+        return buffer.duplicate();
+    }
+
+    // Architectural constants from RFC 2328 appendix B, in seconds.
+    public static final int MAX_AGE = 3600, MAX_AGE_DIFF = 900;
+
+    /**
+     * Decide which of two instances of the same LSA is more recent, https://datatracker.ietf.org/doc/html/rfc2328#section-13.1.
+     * Sequence numbers are signed and increase from 0x80000001, so a plain int comparison is correct. When the
+     * sequence number and checksum match, a MaxAge instance (a premature flush) wins, and otherwise the younger
+     * instance wins if the ages differ by more than MaxAgeDiff.
+     */
+    public boolean isNewerThan(Lsa other) {
+        if (sequenceNumber != other.sequenceNumber) {
+            return sequenceNumber > other.sequenceNumber;
+        }
+        if (checksum != other.checksum) {
+            return checksum > other.checksum;
+        }
+        // The top bit of the age is DoNotAge, which is not part of the age.
+        final int a = Math.min(age & 0x7fff, MAX_AGE), b = Math.min(other.age & 0x7fff, MAX_AGE);
+        if ((a == MAX_AGE) != (b == MAX_AGE)) {
+            return a == MAX_AGE;
+        }
+        return b - a > MAX_AGE_DIFF;
+    }
+
     public static int bytesToUInt(byte b1, byte b2) {
         return (Byte.toUnsignedInt(b1) << 8) | Byte.toUnsignedInt(b2);
     }
 
+    public static int toInt(InetAddress address) {
+        final byte[] b = address.getAddress();
+        return (Byte.toUnsignedInt(b[0]) << 24) | (Byte.toUnsignedInt(b[1]) << 16) |
+                (Byte.toUnsignedInt(b[2]) << 8) | Byte.toUnsignedInt(b[3]);
+    }
+
+    public static InetAddress toInetAddress(int address) {
+        try {
+            return InetAddress.getByAddress(new byte[] {
+                    (byte) (address >>> 24), (byte) (address >>> 16), (byte) (address >>> 8), (byte) address});
+        } catch (UnknownHostException ex) {
+            System.err.println("This should be impossible.");
+            ex.printStackTrace();
+            return null;
+        }
+    }
+
+    public static String toDottedQuad(int address) {
+        return (address >>> 24) + "." + ((address >>> 16) & 0xff) + "." + ((address >>> 8) & 0xff) + "." +
+                (address & 0xff);
+    }
+
+    /**
+     * The inverse of toDottedQuad. Unlike InetAddress.getByName, this never turns to DNS: anything that is not four
+     * decimal octets is an IllegalArgumentException.
+     */
+    public static int parseDottedQuad(String address) {
+        final String[] octets = address.split("\\.", -1);
+        if (octets.length != 4) throw new IllegalArgumentException("not an IPv4 address: " + address);
+        int value = 0;
+        for (String octet : octets) {
+            if (octet.isEmpty() || octet.length() > 3 || !octet.chars().allMatch(c -> c >= '0' && c <= '9')) {
+                throw new IllegalArgumentException("not an IPv4 address: " + address);
+            }
+            final int b = Integer.parseInt(octet);
+            if (b > 255) throw new IllegalArgumentException("not an IPv4 address: " + address);
+            value = (value << 8) | b;
+        }
+        return value;
+    }
+
+    public static int getPrefixLength(int mask) {
+        return Integer.bitCount(mask);
+    }
+
     public static int getPrefixLength(InetAddress mask) {
         int prefixLength = 0;
         for (byte b : mask.getAddress()) {
@@ -0,0 +1,45 @@
+package com.wjholden.ospf;
+
+import java.util.Objects;
+
+/**
+ * Identifies an LSA within an LSDB: https://datatracker.ietf.org/doc/html/rfc2328#section-12.1.
+ * Two LSAs with the same key are instances of the same advertisement; compare them with Lsa.isNewerThan.
+ * The area is 0 when it is unknown (for example, when comparing LSAs that all came from one area). Type 5
+ * (AS-external) LSAs are flooded through every area, so they are always keyed with area 0: the same external
+ * learned in several areas, from several routers or in several captures is one LSA. Type 7 LSAs stay in their NSSA.
+ */
+public final class LsaKey {
+    public final int area, type, linkStateId, advertisingRouter;
+
+    public LsaKey(int area, int type, int linkStateId, int advertisingRouter) {
+        this.area = type == 5 ? 0 : area;
+        this.type = type;
+        this.linkStateId = linkStateId;
+        this.advertisingRouter = advertisingRouter;
+    }
+
+    public LsaKey(int area, Lsa lsa) {
+        this(area, lsa.type, lsa.linkStateId, lsa.advertisingRouter);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (!(o instanceof LsaKey)) return false;
+        LsaKey other = (LsaKey) o;
+        return area == other.area && type == other.type && linkStateId == other.linkStateId &&
+                advertisingRouter == other.advertisingRouter;
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(area, type, linkStateId, advertisingRouter);
+    }
+
+    @Override
+    public String toString() {
+        return String.format("[Area %s Type %d LSID %s ADV %s]", Lsa.toDottedQuad(area), type,
+                Lsa.toDottedQuad(linkStateId), Lsa.toDottedQuad(advertisingRouter));
+    }
+}
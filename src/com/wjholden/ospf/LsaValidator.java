@@ -0,0 +1,158 @@
+package com.wjholden.ospf;
+
+import java.nio.ByteBuffer;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.Collectors;
+
+/**
+ * Checks that an LSA is intact before it is parsed: the header length matches the bytes we have, the body is long
+ * enough for its type (and, for router LSAs, for the links and TOS entries it claims to have), and the Fletcher
+ * checksum of RFC 2328 section 12.1.7 is correct. The Lsa constructor only asserts its lengths, so without this a
+ * truncated or corrupted LSA from a buggy agent is parsed into garbage or throws half way through a load.
+ *
+ * Rejected LSAs are counted by reason. Validation is on unless the JVM is started with -Dospf.validate=false.
+ */
+public final class LsaValidator {
+    public static final boolean ENABLED = !"false".equals(System.getProperty("ospf.validate"));
+
+    public enum Reason {
+        SHORT_HEADER, BAD_LENGTH, BAD_CHECKSUM, ROUTER_LINKS, NETWORK_LENGTH, SUMMARY_LENGTH, EXTERNAL_LENGTH,
+        // A snapshot record whose offset or length points outside the file.
+        BAD_RECORD
+    }
+
+    private static final LongAdder[] rejected = new LongAdder[Reason.values().length];
+
+    static {
+        for (int i = 0 ; i < rejected.length ; i++) rejected[i] = new LongAdder();
+    }
+
+    private LsaValidator() {
+    }
+
+    /**
+     * Check the LSA starting at the buffer's position and ending at its limit, and count it if it is rejected.
+     * @return true if the LSA may be parsed.
+     */
+    public static boolean accept(ByteBuffer lsa) {
+        if (!ENABLED) return true;
+        final Reason reason = check(lsa);
+        if (reason != null) {
+            reject(reason);
+        }
+        return reason == null;
+    }
+
+    /**
+     * Count an LSA that was turned away before it could be checked, such as one that is not where its file says.
+     */
+    static void reject(Reason reason) {
+        rejected[reason.ordinal()].increment();
+        Metrics.count(Metrics.Counter.LSAS_REJECTED, 1);
+    }
+
+    /**
+     * Validate many LSAs at once on the common ForkJoin pool, keeping their order.
+     */
+    public static List<ByteBuffer> filter(List<ByteBuffer> lsas) {
+        return lsas.parallelStream().filter(LsaValidator::accept).collect(Collectors.toList());
+    }
+
+    /**
+     * @return why the LSA starting at the buffer's position is malformed, or null if it is not.
+     */
+    public static Reason check(ByteBuffer lsa) {
+        final int base = lsa.position();
+        final int available = lsa.remaining();
+        if (available < 20) return Reason.SHORT_HEADER;
+        final int length = Short.toUnsignedInt(lsa.getShort(base + 18));
+        if (length < 20 || length != available) return Reason.BAD_LENGTH;
+
+        switch (lsa.get(base + 3)) {
+            case 1: {
+                if (length < 24) return Reason.ROUTER_LINKS;
+                final int links = Short.toUnsignedInt(lsa.getShort(base + 22));
+                int offset = 24;
+                for (int i = 0 ; i < links ; i++) {
+                    if (offset + 12 > length) return Reason.ROUTER_LINKS;
+                    offset += 12 + 4 * Byte.toUnsignedInt(lsa.get(base + offset + 9));
+                }
+                if (offset != length) return Reason.ROUTER_LINKS;
+                break;
+            }
+            case 2:
+                if (length < 28 || (length - 24) % 4 != 0) return Reason.NETWORK_LENGTH;
+                break;
+            case 3: case 4:
+                if (length < 28 || length % 4 != 0) return Reason.SUMMARY_LENGTH;
+                break;
+            case 5: case 7:
+                if (length < 36 || (length - 24) % 12 != 0) return Reason.EXTERNAL_LENGTH;
+                break;
+            default:
+                break;
+        }
+
+        // A correct checksum makes both Fletcher sums over everything but the age zero, modulo 255.
+        final long[] sums = fletcher(lsa, base + 2, base + length);
+        if (sums[0] % 255 != 0 || sums[1] % 255 != 0) return Reason.BAD_CHECKSUM;
+        return null;
+    }
+
+    /**
+     * Fill in the checksum of an LSA whose other fields are complete.
+     */
+    public static void setChecksum(byte[] lsa) {
+        lsa[16] = 0;
+        lsa[17] = 0;
+        final long[] sums = fletcher(ByteBuffer.wrap(lsa), 2, lsa.length);
+        final int c0 = (int) (sums[0] % 255), c1 = (int) (sums[1] % 255);
+
+        // The checksum is at offset 14 of the 2..length range the sums cover (RFC 905 annex B).
+        int x = ((lsa.length - 2 - 14 - 1) * c0 - c1) % 255;
+        if (x <= 0) x += 255;
+        int y = 510 - c0 - x;
+        if (y > 255) y -= 255;
+        lsa[16] = (byte) x;
+        lsa[17] = (byte) y;
+    }
+
+    /**
+     * The two Fletcher sums, C0 and C1, of bytes from to to - 1, without the final modulo 255.
+     *
+     * An LSA is at most 65535 bytes, so neither sum can overflow a long and the modulo is left to the caller.
+     * The bulk is read eight bytes at a time: after a block of bytes b0 to b7, C1 has grown by eight times the
+     * old C0 plus 8 b0 + 7 b1 + ... + 1 b7.
+     */
+    static long[] fletcher(ByteBuffer buffer, int from, int to) {
+        long c0 = 0, c1 = 0;
+        int i = from;
+        for ( ; i + 8 <= to ; i += 8) {
+            final long w = buffer.getLong(i);
+            final long b0 = w >>> 56, b1 = (w >>> 48) & 0xff, b2 = (w >>> 40) & 0xff, b3 = (w >>> 32) & 0xff;
+            final long b4 = (w >>> 24) & 0xff, b5 = (w >>> 16) & 0xff, b6 = (w >>> 8) & 0xff, b7 = w & 0xff;
+            c1 += 8 * c0 + 8 * b0 + 7 * b1 + 6 * b2 + 5 * b3 + 4 * b4 + 3 * b5 + 2 * b6 + b7;
+            c0 += b0 + b1 + b2 + b3 + b4 + b5 + b6 + b7;
+        }
+        for ( ; i < to ; i++) {
+            c0 += Byte.toUnsignedInt(buffer.get(i));
+            c1 += c0;
+        }
+        return new long[] {c0, c1};
+    }
+
+    /**
+     * @return how many LSAs have been rejected for each reason since the JVM started, leaving out reasons with none.
+     */
+    public static Map<Reason, Long> getRejected() {
+        final Map<Reason, Long> counts = new EnumMap<>(Reason.class);
+        for (Reason reason : Reason.values()) {
+            final long n = rejected[reason.ordinal()].sum();
+            if (n > 0) counts.put(reason, n);
+        }
+        return counts;
+    }
+}
@@ -0,0 +1,192 @@
+package com.wjholden.ospf;
+
+import org.snmp4j.security.AuthSHA;
+import org.snmp4j.security.SecurityProtocols;
+import org.soulwing.snmp.*;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.function.BiConsumer;
+import java.util.function.Function;
+
+/**
+ * Walks the OSPF-MIB LSDB table of several routers at once and merges the results.
+ * Polling one ABR per area is enough to see every area; any LSA seen more than once
+ * (flooded to several of the targets) is kept only in its newest instance.
+ */
+public class LsdbCollector {
+    // Override these with -Dospf.snmp.threads=N, -Dospf.snmp.timeout=seconds (per target) and
+    // -Dospf.snmp.repetitions=N. The timeout is checked between rows: a GETBULK that is already waiting is only
+    // bounded by tnm4j's own request timeout and retries, which are fixed when the context is created, so a walk
+    // can overrun by that much.
+    private static final int THREADS = Integer.getInteger("ospf.snmp.threads", 8);
+    private static final long TIMEOUT_SECONDS = Long.getLong("ospf.snmp.timeout", 120);
+    private static final int REPETITIONS = Integer.getInteger("ospf.snmp.repetitions", 25);
+
+    private final String username, authPassword, privPassword;
+    private final Mib mib;
+
+    public LsdbCollector(String username, String authPassword, String privPassword) throws IOException {
+        this.username = username;
+        this.authPassword = authPassword;
+        this.privPassword = privPassword;
+
+        mib = MibFactory.getInstance().newMib();
+        mib.load("SNMPv2-MIB");
+        mib.load("OSPF-MIB");
+
+        SecurityProtocols.getInstance().addAuthenticationProtocol(new AuthSHA());
+    }
+
+    /**
+     * Walk every target concurrently. A target that fails or does not finish within the timeout is reported and
+     * skipped; the LSDB is built from whatever the other targets returned.
+     */
+    public Map<LsaKey, Lsa> collect(List<String> targets) throws InterruptedException {
+        return collect(targets, new ArrayList<>());
+    }
+
+    /**
+     * Like collect, but throws instead of returning an incomplete LSDB if any target fails, so that an LSA missing
+     * from the result really was withdrawn. Use this when the result replaces an earlier LSDB.
+     */
+    public Map<LsaKey, Lsa> collectAll(List<String> targets) throws InterruptedException, IOException {
+        final List<String> failed = new ArrayList<>();
+        final Map<LsaKey, Lsa> lsdb = collect(targets, failed);
+        if (!failed.isEmpty()) {
+            throw new IOException("Could not walk " + String.join(", ", failed));
+        }
+        return lsdb;
+    }
+
+    private Map<LsaKey, Lsa> collect(List<String> targets, List<String> failed) throws InterruptedException {
+        final long start = Metrics.start();
+        final Map<LsaKey, Lsa> lsdb = new ConcurrentHashMap<>();
+        failed.addAll(run(targets, address -> () -> {
+            // Hold on to this target's rows until its walk has finished, so a failed walk leaves nothing behind.
+            final Map<LsaKey, Lsa> rows = new HashMap<>();
+            final int count = walk(address,
+                    (area, lsa) -> rows.merge(new LsaKey(area, lsa), lsa, LsdbCollector::newer));
+            rows.forEach((key, lsa) -> lsdb.merge(key, lsa, LsdbCollector::newer));
+            return count;
+        }));
+        System.out.println("Merged LSDB contains " + lsdb.size() + " LSAs from " + targets.size() + " target(s)");
+        Metrics.stage("snmpWalk", start);
+        return lsdb;
+    }
+
+    /**
+     * Walk every target concurrently and hand each LSA to the sink, along with its area, as soon as its row
+     * arrives. The sink is called from several threads at once and may block to slow the walks down. A target
+     * that fails part way has already handed over the rows it returned.
+     * @return the targets that failed or timed out.
+     */
+    public List<String> stream(List<String> targets, BiConsumer<Integer, Lsa> sink) throws InterruptedException {
+        return run(targets, address -> () -> walk(address, sink));
+    }
+
+    private static Lsa newer(Lsa a, Lsa b) {
+        return b.isNewerThan(a) ? b : a;
+    }
+
+    /**
+     * Run one task per target on a pool of THREADS and wait for all of them. Each walk enforces its own timeout
+     * from the moment it starts, so targets queued behind others still get the full time.
+     * @return the targets whose task failed.
+     */
+    private List<String> run(List<String> targets, Function<String, Callable<Integer>> task)
+            throws InterruptedException {
+        final ExecutorService executor = Executors.newFixedThreadPool(Math.max(1, Math.min(THREADS, targets.size())));
+        final List<String> failed = new ArrayList<>();
+        try {
+            final Map<String, Future<Integer>> futures = new LinkedHashMap<>();
+            for (String address : targets) {
+                futures.put(address, executor.submit(task.apply(address)));
+            }
+            for (Map.Entry<String, Future<Integer>> entry : futures.entrySet()) {
+                try {
+                    System.out.println("Read " + entry.getValue().get() + " LSAs from " + entry.getKey());
+                } catch (ExecutionException ex) {
+                    System.err.println("SNMP walk of " + entry.getKey() + " failed: " + ex.getCause());
+                    failed.add(entry.getKey());
+                }
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+        return failed;
+    }
+
+    private int walk(String address, BiConsumer<Integer, Lsa> sink)
+            throws IOException, TimeoutException, InterruptedException {
+        // Each GETBULK has tnm4j's own request timeout; this bounds the walk as a whole, checked between rows.
+        final long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(TIMEOUT_SECONDS);
+        final SimpleSnmpV3Target target = new SimpleSnmpV3Target();
+        target.setAddress(address);
+        target.setSecurityName(username);
+        target.setAuthType(SnmpV3Target.AuthType.SHA);
+        target.setPrivType(SnmpV3Target.PrivType.AES128);
+        target.setAuthPassphrase(System.getProperty("tnm4j.agent.auth.password", authPassword));
+        target.setPrivPassphrase(System.getProperty("tnm4j.agent.priv.password", privPassword));
+
+        // The walk uses GETBULK, fetching this many rows of the LSDB table per round trip.
+        final SimpleSnmpTargetConfig config = new SimpleSnmpTargetConfig();
+        config.setWalkMaxRepetitions(REPETITIONS);
+
+        int rows = 0, unsupported = 0, malformed = 0;
+        try (SnmpContext context = SnmpFactory.getInstance().newContext(target, mib, config, null)) {
+            final SnmpWalker<VarbindCollection> walker = context.walk(1, "sysName",
+                    "ospfLsdbAreaId", "ospfLsdbAdvertisement");
+            VarbindCollection row = walker.next().get();
+            while (row != null) {
+                if (Thread.interrupted()) {
+                    throw new InterruptedException();
+                }
+                if (System.nanoTime() - deadline > 0) {
+                    throw new TimeoutException("timed out after " + TIMEOUT_SECONDS + " s");
+                }
+                final Integer area = areaId(row.get("ospfLsdbAreaId").asString());
+                final byte[] bytes = (byte[]) row.get("ospfLsdbAdvertisement").toObject();
+                if (area != null && LsaValidator.accept(ByteBuffer.wrap(bytes))) {
+                    try {
+                        final Lsa lsa = Lsa.getInstance(bytes);
+                        if (lsa != null) {
+                            sink.accept(area, lsa);
+                        }
+                    } catch (UnsupportedOperationException ex) {
+                        // Opaque LSAs and the like. Skip them rather than abandon the walk.
+                        unsupported++;
+                    }
+                } else {
+                    malformed++;
+                }
+                rows++;
+                row = walker.next().get();
+            }
+        }
+        if (unsupported > 0) {
+            System.err.println("Skipped " + unsupported + " LSAs of unsupported types from " + address);
+        }
+        if (malformed > 0) {
+            System.err.println("Rejected " + malformed + " malformed LSAs from " + address);
+        }
+        Metrics.count(Metrics.Counter.SNMP_ROWS, rows);
+        // The walker does not expose its PDUs, but each GETBULK returns up to REPETITIONS rows.
+        Metrics.count(Metrics.Counter.SNMP_ROUND_TRIPS, rows / REPETITIONS + 1);
+        return rows;
+    }
+
+    /**
+     * The MIB gives area IDs as dotted quads. Anything else is a malformed row, not a name to look up in DNS.
+     * @return the area ID, or null if it is not a dotted quad.
+     */
+    private static Integer areaId(String value) {
+        try {
+            return Lsa.parseDottedQuad(value);
+        } catch (IllegalArgumentException ex) {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,248 @@
+package com.wjholden.ospf;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.*;
+
+/**
+ * What changed between two LSDBs: routers and networks that appeared or disappeared, adjacencies that were added
+ * or dropped, metrics that changed, and stubs, summaries and externals that came and went.
+ *
+ * LSAs are matched by area, type, link state ID and advertising router. An LSA whose sequence number, checksum
+ * and length are unchanged is skipped without looking at its body, so the cost of a diff is one hash lookup per
+ * LSA plus the size of the LSAs that actually changed. Bodies are read straight from the LSA bytes, so compact
+ * and heap LSAs can be compared alike.
+ *
+ * Run as a program to compare two snapshot files: LsdbDiff before after [changes.json].
+ */
+public class LsdbDiff {
+    public enum Op {
+        ADDED('+'), REMOVED('-'), CHANGED('~');
+
+        public final char symbol;
+
+        Op(char symbol) {
+            this.symbol = symbol;
+        }
+    }
+
+    public enum Element {
+        ROUTER, NETWORK, LINK, TRANSIT, STUB, VIRTUAL, ATTACHED, SUMMARY, EXTERNAL
+    }
+
+    /**
+     * One change. before and after are metrics, or -1 where there is no metric or no such element.
+     */
+    public static final class Change {
+        public final Op op;
+        public final Element element;
+        public final int area;
+        public final String subject;
+        public final int before, after;
+
+        Change(Op op, Element element, int area, String subject, int before, int after) {
+            this.op = op;
+            this.element = element;
+            this.area = area;
+            this.subject = subject;
+            this.before = before;
+            this.after = after;
+        }
+
+        @Override
+        public String toString() {
+            final StringBuilder s = new StringBuilder();
+            s.append(op.symbol).append(' ').append(element).append(' ').append(subject)
+                    .append(" (area ").append(Lsa.toDottedQuad(area)).append(')');
+            if (op == Op.CHANGED) {
+                s.append(" cost ").append(before).append(" -> ").append(after);
+            } else if (Math.max(before, after) >= 0) {
+                s.append(" cost ").append(Math.max(before, after));
+            }
+            return s.toString();
+        }
+
+        public String toJson() {
+            return "{\"op\":\"" + op + "\",\"element\":\"" + element + "\",\"area\":\"" + Lsa.toDottedQuad(area) +
+                    "\",\"subject\":\"" + subject + "\",\"before\":" + before + ",\"after\":" + after + "}";
+        }
+    }
+
+    public static List<Change> diff(Map<LsaKey, Lsa> before, Map<LsaKey, Lsa> after) {
+        final long start = Metrics.start();
+        final List<Change> changes = new ArrayList<>();
+        for (Map.Entry<LsaKey, Lsa> entry : before.entrySet()) {
+            final Lsa next = after.get(entry.getKey());
+            if (next == null) {
+                compare(entry.getKey(), entry.getValue(), null, changes);
+            } else if (LsdbRefresher.changed(entry.getValue(), next)) {
+                compare(entry.getKey(), entry.getValue(), next, changes);
+            }
+        }
+        for (Map.Entry<LsaKey, Lsa> entry : after.entrySet()) {
+            if (!before.containsKey(entry.getKey())) {
+                compare(entry.getKey(), null, entry.getValue(), changes);
+            }
+        }
+        changes.sort(Comparator.comparingInt((Change c) -> c.area).thenComparing(c -> c.element)
+                .thenComparing(c -> c.subject).thenComparing(c -> c.op));
+        Metrics.stage("diff", start);
+        return changes;
+    }
+
+    private static void compare(LsaKey key, Lsa before, Lsa after, List<Change> changes) {
+        final String advertiser = Lsa.toDottedQuad(key.advertisingRouter);
+        final Lsa any = after != null ? after : before;
+        switch (key.type) {
+            case 1: {
+                if (before == null || after == null) {
+                    changes.add(new Change(before == null ? Op.ADDED : Op.REMOVED, Element.ROUTER, key.area,
+                            advertiser, -1, -1));
+                }
+                // Links are keyed by Link ID and Link Data; the values carry the type and metric.
+                final Map<Long, Integer> a = links(before), b = links(after);
+                for (Map.Entry<Long, Integer> link : a.entrySet()) {
+                    final Integer other = b.get(link.getKey());
+                    if (other == null || other >>> 24 != link.getValue() >>> 24) {
+                        changes.add(link(Op.REMOVED, key, link.getKey(), link.getValue(), -1));
+                    } else if (!other.equals(link.getValue())) {
+                        changes.add(link(Op.CHANGED, key, link.getKey(), link.getValue(), other));
+                    }
+                }
+                for (Map.Entry<Long, Integer> link : b.entrySet()) {
+                    final Integer other = a.get(link.getKey());
+                    if (other == null || other >>> 24 != link.getValue() >>> 24) {
+                        changes.add(link(Op.ADDED, key, link.getKey(), -1, link.getValue()));
+                    }
+                }
+                break;
+            }
+            case 2: {
+                final ByteBuffer buffer = any.getBuffer();
+                final int mask = buffer.getInt(20);
+                final String prefix = Lsa.toDottedQuad(key.linkStateId & mask) + "/" + Lsa.getPrefixLength(mask);
+                if (before == null || after == null) {
+                    changes.add(new Change(before == null ? Op.ADDED : Op.REMOVED, Element.NETWORK, key.area,
+                            prefix, -1, -1));
+                }
+                final Set<Integer> a = attached(before), b = attached(after);
+                for (int router : a) {
+                    if (!b.contains(router)) changes.add(new Change(Op.REMOVED, Element.ATTACHED, key.area,
+                            prefix + " " + Lsa.toDottedQuad(router), -1, -1));
+                }
+                for (int router : b) {
+                    if (!a.contains(router)) changes.add(new Change(Op.ADDED, Element.ATTACHED, key.area,
+                            prefix + " " + Lsa.toDottedQuad(router), -1, -1));
+                }
+                break;
+            }
+            case 3: case 4: case 5: case 7: {
+                final Element element = key.type == 3 || key.type == 4 ? Element.SUMMARY : Element.EXTERNAL;
+                final ByteBuffer buffer = any.getBuffer();
+                final String subject = (key.type == 4 ? "ASBR " + Lsa.toDottedQuad(key.linkStateId) :
+                        Lsa.toDottedQuad(key.linkStateId & buffer.getInt(20)) + "/" +
+                                Lsa.getPrefixLength(buffer.getInt(20))) + " from " + advertiser;
+                final int a = metric(before), b = metric(after);
+                if (a != b) {
+                    changes.add(new Change(before == null ? Op.ADDED : after == null ? Op.REMOVED : Op.CHANGED,
+                            element, key.area, subject, a, b));
+                }
+                break;
+            }
+            default:
+                break;
+        }
+    }
+
+    /**
+     * The links of a router LSA by Link ID and Link Data, each with (type << 24) | metric.
+     */
+    private static Map<Long, Integer> links(Lsa lsa) {
+        if (lsa == null) return Collections.emptyMap();
+        final ByteBuffer buffer = lsa.getBuffer();
+        final int count = Short.toUnsignedInt(buffer.getShort(22));
+        final Map<Long, Integer> links = new HashMap<>(count * 2);
+        int offset = 24;
+        for (int i = 0 ; i < count && offset + 12 <= buffer.limit() ; i++) {
+            final int type = Byte.toUnsignedInt(buffer.get(offset + 8));
+            final int metric = Short.toUnsignedInt(buffer.getShort(offset + 10));
+            links.put(((long) buffer.getInt(offset) << 32) | (buffer.getInt(offset + 4) & 0xffffffffL),
+                    (type << 24) | metric);
+            offset += 12 + 4 * Byte.toUnsignedInt(buffer.get(offset + 9));
+        }
+        return links;
+    }
+
+    private static Change link(Op op, LsaKey key, long link, int before, int after) {
+        final String router = Lsa.toDottedQuad(key.advertisingRouter);
+        final int linkId = (int) (link >>> 32), linkData = (int) link;
+        final int type = (op == Op.ADDED ? after : before) >>> 24;
+        final Element element;
+        final String subject;
+        switch (type) {
+            case 2:
+                element = Element.TRANSIT;
+                subject = router + "->" + Lsa.toDottedQuad(linkId);
+                break;
+            case 3:
+                element = Element.STUB;
+                subject = router + " " + Lsa.toDottedQuad(linkId & linkData) + "/" + Lsa.getPrefixLength(linkData);
+                break;
+            case 4:
+                element = Element.VIRTUAL;
+                subject = router + "->" + Lsa.toDottedQuad(linkId);
+                break;
+            default:
+                element = Element.LINK;
+                subject = router + "->" + Lsa.toDottedQuad(linkId) + " via " + Lsa.toDottedQuad(linkData);
+                break;
+        }
+        return new Change(op, element, key.area, subject, before < 0 ? -1 : before & 0xffffff,
+                after < 0 ? -1 : after & 0xffffff);
+    }
+
+    private static Set<Integer> attached(Lsa lsa) {
+        if (lsa == null) return Collections.emptySet();
+        final ByteBuffer buffer = lsa.getBuffer();
+        final Set<Integer> routers = new HashSet<>();
+        for (int offset = 24 ; offset + 4 <= buffer.limit() ; offset += 4) {
+            routers.add(buffer.getInt(offset));
+        }
+        return routers;
+    }
+
+    private static int metric(Lsa lsa) {
+        return lsa == null ? -1 : lsa.getBuffer().getInt(24) & 0xffffff;
+    }
+
+    public static String toJson(List<Change> changes) {
+        final StringBuilder s = new StringBuilder("[");
+        for (int i = 0 ; i < changes.size() ; i++) {
+            if (i > 0) s.append(",\n");
+            s.append(changes.get(i).toJson());
+        }
+        return s.append("]").toString();
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length < 2) {
+            System.err.println("Usage: LsdbDiff before.snapshot after.snapshot [changes.json]");
+            System.exit(1);
+        }
+        final Map<LsaKey, Lsa> before = LsdbSnapshot.readCompact(Paths.get(args[0]));
+        final Map<LsaKey, Lsa> after = LsdbSnapshot.readCompact(Paths.get(args[1]));
+        final long start = System.nanoTime();
+        final List<Change> changes = diff(before, after);
+        final double millis = (System.nanoTime() - start) / 1e6;
+
+        changes.forEach(System.out::println);
+        System.out.printf("%d changes between %d and %d LSAs, found in %.3f ms%n", changes.size(), before.size(),
+                after.size(), millis);
+        if (args.length > 2) {
+            Files.write(Paths.get(args[2]), (toJson(changes) + "\n").getBytes(StandardCharsets.UTF_8));
+        }
+    }
+}
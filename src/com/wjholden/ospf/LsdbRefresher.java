@@ -0,0 +1,193 @@
+package com.wjholden.ospf;
+
+import org.neo4j.graphdb.GraphDatabaseService;
+import org.neo4j.graphdb.Transaction;
+
+import java.util.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Applies the difference between two LSDB snapshots to a graph that was loaded from the first one.
+ * Only routers and networks whose LSAs were added, removed or changed are touched: their outgoing edges are deleted
+ * and rebuilt from the new LSAs, so on a stable network a refresh costs about as much as the number of changes.
+ * Summary and external edges are rebuilt per originating ABR or ASBR, and SUMMARY or EXTERNAL nodes that nobody
+ * links to anymore are deleted.
+ */
+public class LsdbRefresher {
+    private final GraphDatabaseService graphDb;
+    private Map<LsaKey, Lsa> current;
+
+    public LsdbRefresher(GraphDatabaseService graphDb, Map<LsaKey, Lsa> current) {
+        this.graphDb = graphDb;
+        this.current = new HashMap<>(current);
+    }
+
+    /**
+     * Two instances of an LSA carry the same content if the sequence number, checksum and length all match.
+     */
+    public static boolean changed(Lsa before, Lsa after) {
+        return before.sequenceNumber != after.sequenceNumber || before.checksum != after.checksum ||
+                before.length != after.length;
+    }
+
+    public Map<LsaKey, Lsa> getCurrent() {
+        return Collections.unmodifiableMap(current);
+    }
+
+    /**
+     * @return how many LSAs were added, removed or changed; zero means the graph was not touched.
+     */
+    public int refresh(Map<LsaKey, Lsa> next) {
+        final long start = System.nanoTime();
+
+        // Routers are identified by router ID and networks by prefix, which is also how the graph names them.
+        final Set<String> routers = new HashSet<>();
+        final Set<String> networks = new HashSet<>();
+        final Set<String> stubs = new HashSet<>();
+        // ABRs and ASBRs whose summary or external edges must be rebuilt.
+        final Set<String> originators = new HashSet<>();
+        final List<NetworkLsa> addedNetworks = new ArrayList<>();
+        int changes = 0;
+
+        for (Map.Entry<LsaKey, Lsa> entry : current.entrySet()) {
+            final Lsa after = next.get(entry.getKey());
+            if (after == null || changed(entry.getValue(), after)) {
+                touch(entry.getValue(), routers, networks, stubs, originators);
+                changes++;
+            }
+        }
+        for (Map.Entry<LsaKey, Lsa> entry : next.entrySet()) {
+            final Lsa before = current.get(entry.getKey());
+            if (before == null || changed(before, entry.getValue())) {
+                touch(entry.getValue(), routers, networks, stubs, originators);
+                if (before == null) changes++;
+                if (entry.getValue() instanceof NetworkLsa) {
+                    addedNetworks.add((NetworkLsa) entry.getValue());
+                }
+            }
+        }
+
+        if (changes == 0) {
+            current = new HashMap<>(next);
+            return 0;
+        }
+
+        // Everything below only looks at the LSAs for the touched routers and networks.
+        final Map<String, List<RouterLsa>> routerLsas = new HashMap<>();
+        final Map<String, List<NetworkLsa>> networkLsas = new HashMap<>();
+        final List<NetworkLsa> allNetworks = new ArrayList<>();
+        for (Lsa lsa : next.values()) {
+            if (lsa instanceof NetworkLsa) {
+                allNetworks.add((NetworkLsa) lsa);
+            }
+        }
+
+        // A new or re-masked network can capture transit links of routers that did not change themselves.
+        if (!addedNetworks.isEmpty()) {
+            final PrefixTrie<NetworkLsa> added = OspfAnalyzer.networkTrie(addedNetworks);
+            for (Lsa lsa : next.values()) {
+                if (lsa instanceof RouterLsa && transitInto((RouterLsa) lsa, added)) {
+                    routers.add(((RouterLsa) lsa).routerId.getHostAddress());
+                }
+            }
+        }
+
+        for (Lsa lsa : next.values()) {
+            if (lsa instanceof RouterLsa && routers.contains(((RouterLsa) lsa).routerId.getHostAddress())) {
+                routerLsas.computeIfAbsent(((RouterLsa) lsa).routerId.getHostAddress(), k -> new ArrayList<>())
+                        .add((RouterLsa) lsa);
+            } else if (lsa instanceof NetworkLsa && networks.contains(((NetworkLsa) lsa).getPrefix())) {
+                networkLsas.computeIfAbsent(((NetworkLsa) lsa).getPrefix(), k -> new ArrayList<>())
+                        .add((NetworkLsa) lsa);
+            }
+        }
+
+        // Rebuilding a router's edges below also drops its summary and external edges.
+        originators.addAll(routers);
+        final List<Lsa> originated = new ArrayList<>();
+        for (Lsa lsa : next.values()) {
+            if ((lsa instanceof SummaryLsa || lsa instanceof ExternalLsa) &&
+                    originators.contains(Lsa.toDottedQuad(lsa.advertisingRouter))) {
+                originated.add(lsa);
+            }
+        }
+
+        final List<String> removedRouters = new ArrayList<>(routers);
+        removedRouters.removeAll(routerLsas.keySet());
+        final List<String> removedNetworks = new ArrayList<>(networks);
+        removedNetworks.removeAll(networkLsas.keySet());
+
+        try (Transaction tx = graphDb.beginTx()) {
+            tx.execute("UNWIND $names AS name MATCH (:ROUTER {name:name})-[e:LINKED]->(d)\n" +
+                            "WHERE d:SUMMARY OR d:EXTERNAL DELETE e\n" +
+                            "WITH DISTINCT d WHERE NOT ()-->(d) DELETE d",
+                    Collections.singletonMap("names", new ArrayList<>(originators)));
+            tx.execute("UNWIND $names AS name MATCH (n:ROUTER {name:name}) DETACH DELETE n",
+                    Collections.singletonMap("names", removedRouters));
+            tx.execute("UNWIND $names AS name MATCH (n:NETWORK {name:name}) DETACH DELETE n",
+                    Collections.singletonMap("names", removedNetworks));
+            tx.execute("UNWIND $names AS name MERGE (n:ROUTER {name:name})\n" +
+                            "WITH n MATCH (n)-[e:LINKED]->() DELETE e",
+                    Collections.singletonMap("names", new ArrayList<>(routerLsas.keySet())));
+            tx.execute("UNWIND $names AS name MERGE (n:NETWORK {name:name})\n" +
+                            "WITH n MATCH (n)-[e:LINKED]->() DELETE e",
+                    Collections.singletonMap("names", new ArrayList<>(networkLsas.keySet())));
+            tx.commit();
+            Metrics.count(Metrics.Counter.CYPHER_EXECUTIONS, 5);
+        }
+
+        final PrefixTrie<NetworkLsa> trie = OspfAnalyzer.networkTrie(allNetworks);
+        final AtomicInteger unresolved = new AtomicInteger();
+        final List<Map<String, Object>> routerRows = new ArrayList<>();
+        final List<Map<String, Object>> transportRows = new ArrayList<>();
+        final List<Map<String, Object>> stubRows = new ArrayList<>();
+        final List<Map<String, Object>> networkRows = new ArrayList<>();
+        routerLsas.values().forEach(list -> list.forEach(lsa -> {
+            routerRows.addAll(OspfAnalyzer.routerEdges(lsa));
+            transportRows.addAll(OspfAnalyzer.transportEdges(lsa, trie, unresolved));
+            stubRows.addAll(OspfAnalyzer.stubEdges(lsa));
+        }));
+        networkLsas.values().forEach(list -> list.forEach(lsa -> networkRows.addAll(OspfAnalyzer.networkEdges(lsa))));
+
+        OspfAnalyzer.mergeEdges(graphDb, "refreshRouters", OspfAnalyzer.ROUTER_EDGES, routerRows);
+        OspfAnalyzer.mergeEdges(graphDb, "refreshNetworks", OspfAnalyzer.NETWORK_EDGES, networkRows);
+        OspfAnalyzer.mergeEdges(graphDb, "refreshTransport", OspfAnalyzer.TRANSPORT_EDGES, transportRows);
+        OspfAnalyzer.mergeEdges(graphDb, "refreshStubs", OspfAnalyzer.STUB_EDGES, stubRows);
+        OspfAnalyzer.connectSummaries(graphDb, originated);
+        OspfAnalyzer.connectExternals(graphDb, ExternalTable.of(originated));
+
+        // Stubs are shared between routers, so only delete the ones that nobody advertises anymore.
+        try (Transaction tx = graphDb.beginTx()) {
+            tx.execute("UNWIND $names AS name MATCH (s:STUB {name:name}) WHERE NOT ()-->(s) DELETE s",
+                    Collections.singletonMap("names", new ArrayList<>(stubs)));
+            tx.commit();
+            Metrics.count(Metrics.Counter.CYPHER_EXECUTIONS, 1);
+        }
+
+        current = new HashMap<>(next);
+        System.out.printf("Refreshed %d changed LSA(s): %d router(s), %d network(s), %d ABR/ASBR(s) in %.3f s%n",
+                changes, routers.size(), networks.size(), originators.size(), (System.nanoTime() - start) / 1e9);
+        return changes;
+    }
+
+    private static void touch(Lsa lsa, Set<String> routers, Set<String> networks, Set<String> stubs,
+                              Set<String> originators) {
+        if (lsa instanceof RouterLsa) {
+            routers.add(((RouterLsa) lsa).routerId.getHostAddress());
+            stubs.addAll(((RouterLsa) lsa).getStubs().keySet());
+        } else if (lsa instanceof NetworkLsa) {
+            networks.add(((NetworkLsa) lsa).getPrefix());
+        } else if (lsa instanceof SummaryLsa || lsa instanceof ExternalLsa) {
+            originators.add(Lsa.toDottedQuad(lsa.advertisingRouter));
+        }
+    }
+
+    private static boolean transitInto(RouterLsa router, PrefixTrie<NetworkLsa> networks) {
+        for (RouterLsa.Link link : router.adjacencies) {
+            if (link.type == 2 && networks.longestMatch(Lsa.toInt(link.linkData)) != null) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
@@ -0,0 +1,169 @@
+package com.wjholden.ospf;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+import java.util.function.Function;
+
+/**
+ * Saves an LSDB to disk and reads it back, so that analysis does not need a reachable router.
+ *
+ * The file is big-endian, like the LSAs themselves:
+ * <pre>
+ *   header:  "OSPFLSDB" (8 bytes), version (int), LSA count (int), collection time in ms (long), index offset (long)
+ *   records: area ID (int), LSA length (int), raw LSA bytes ... repeated count times
+ *   index:   offset of each record from the start of the file (long) ... repeated count times
+ * </pre>
+ * Reading maps the file into memory and hands each LSA a slice of the mapping, so the LSA bytes are never copied
+ * onto the heap. A single mapping is limited to 2 GB.
+ */
+public final class LsdbSnapshot {
+    private static final byte[] MAGIC = "OSPFLSDB".getBytes(java.nio.charset.StandardCharsets.US_ASCII);
+    private static final int VERSION = 1;
+    private static final int HEADER_LENGTH = 8 + 4 + 4 + 8 + 8;
+
+    private LsdbSnapshot() {
+    }
+
+    public static void write(Path path, Map<LsaKey, Lsa> lsdb) throws IOException {
+        final long[] index = new long[lsdb.size()];
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(path)))) {
+            out.write(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(lsdb.size());
+            out.writeLong(System.currentTimeMillis());
+            // The index goes after the records, and we already know how long the records will be.
+            long offset = HEADER_LENGTH;
+            for (Lsa lsa : lsdb.values()) {
+                offset += 8 + lsa.length;
+            }
+            out.writeLong(offset);
+
+            int i = 0;
+            offset = HEADER_LENGTH;
+            for (Map.Entry<LsaKey, Lsa> entry : lsdb.entrySet()) {
+                final ByteBuffer buffer = entry.getValue().getBuffer();
+                final byte[] bytes = new byte[entry.getValue().length];
+                buffer.get(bytes);
+                out.writeInt(entry.getKey().area);
+                out.writeInt(bytes.length);
+                out.write(bytes);
+                index[i++] = offset;
+                offset += 8 + bytes.length;
+            }
+            for (long o : index) {
+                out.writeLong(o);
+            }
+        }
+    }
+
+    /**
+     * @return the LSDB in the InetAddress-based representation used by the graph loader.
+     */
+    public static Map<LsaKey, Lsa> read(Path path) throws IOException {
+        return read(path, Lsa::getInstance);
+    }
+
+    /**
+     * @return the LSDB in the compact representation; see Lsa.getCompactInstance.
+     */
+    public static Map<LsaKey, Lsa> readCompact(Path path) throws IOException {
+        return read(path, Lsa::getCompactInstance);
+    }
+
+    private static Map<LsaKey, Lsa> read(Path path, Function<ByteBuffer, Lsa> parser) throws IOException {
+        final long start = System.nanoTime();
+        final MappedByteBuffer map = map(path);
+        final int count = checkHeader(map, path);
+
+        // records checks the count against the file size before anything is allocated for it.
+        final List<ByteBuffer> records = LsaValidator.filter(records(map, count));
+        if (records.size() < count) {
+            System.err.println("Rejected " + (count - records.size()) + " malformed LSAs in " + path);
+        }
+        final Map<LsaKey, Lsa> lsdb = new HashMap<>(records.size() * 4 / 3 + 1);
+        for (ByteBuffer record : records) {
+            final int area = record.getInt(record.position() - 8);
+            final Lsa lsa = parser.apply(record);
+            if (lsa != null) {
+                lsdb.put(new LsaKey(area, lsa), lsa);
+            }
+        }
+        System.out.printf("Read %d LSAs (%d bytes) from %s in %.3f s%n", lsdb.size(), map.capacity(), path,
+                (System.nanoTime() - start) / 1e9);
+        return lsdb;
+    }
+
+    /**
+     * @return one buffer per record, positioned at the LSA and limited to its length. The area ID is the int
+     *         eight bytes before the position. Records that do not fit in the file are left out and counted as
+     *         rejected.
+     */
+    static List<ByteBuffer> records(ByteBuffer map, int count) throws IOException {
+        final long indexOffset = map.getLong(24);
+        if (indexOffset < HEADER_LENGTH || indexOffset + 8L * count > map.capacity()) {
+            throw new IOException("The snapshot index at " + indexOffset + " does not fit in " + map.capacity() +
+                    " bytes; the file is truncated or corrupt.");
+        }
+        final List<ByteBuffer> records = new ArrayList<>(count);
+        for (int i = 0 ; i < count ; i++) {
+            final long offset = map.getLong((int) indexOffset + 8 * i);
+            if (offset < HEADER_LENGTH || offset + 8 > indexOffset) {
+                LsaValidator.reject(LsaValidator.Reason.BAD_RECORD);
+                continue;
+            }
+            final int length = map.getInt((int) offset + 4);
+            if (length < 0 || offset + 8 + length > indexOffset) {
+                LsaValidator.reject(LsaValidator.Reason.BAD_RECORD);
+                continue;
+            }
+            final ByteBuffer record = map.duplicate();
+            record.limit((int) offset + 8 + length);
+            record.position((int) offset + 8);
+            records.add(record);
+        }
+        return records;
+    }
+
+    static MappedByteBuffer map(Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            if (channel.size() > Integer.MAX_VALUE) {
+                throw new IOException(path + " is larger than 2 GB and cannot be mapped in one piece.");
+            }
+            // The mapping stays valid after the channel is closed.
+            return channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+    }
+
+    static int checkHeader(ByteBuffer map, Path path) throws IOException {
+        // Check the length before reading the magic, so that a short file is an IOException and not an underflow.
+        if (map.capacity() < HEADER_LENGTH) {
+            throw new IOException(path + " is not an LSDB snapshot.");
+        }
+        final byte[] magic = new byte[MAGIC.length];
+        map.duplicate().get(magic);
+        if (!Arrays.equals(magic, MAGIC)) {
+            throw new IOException(path + " is not an LSDB snapshot.");
+        }
+        if (map.getInt(8) != VERSION) {
+            throw new IOException(path + " is snapshot version " + map.getInt(8) + "; expected " + VERSION + ".");
+        }
+        if (map.getInt(12) < 0) {
+            throw new IOException(path + " claims " + map.getInt(12) + " LSAs.");
+        }
+        return map.getInt(12);
+    }
+
+    public static long timestamp(Path path) throws IOException {
+        final MappedByteBuffer map = map(path);
+        checkHeader(map, path);
+        return map.getLong(16);
+    }
+}
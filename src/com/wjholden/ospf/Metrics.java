@@ -0,0 +1,123 @@
+package com.wjholden.ospf;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counters and stage timings for one run of the analyzer.
+ *
+ * Everything is off unless the JVM is started with -Dospf.metrics=true. ENABLED is a static final, so when it is
+ * false the JIT removes the checks and the instrumentation costs nothing.
+ */
+public final class Metrics implements MetricsMXBean {
+    public static final boolean ENABLED = Boolean.getBoolean("ospf.metrics");
+
+    public enum Counter {
+        BYTES_PARSED, SNMP_ROWS, SNMP_ROUND_TRIPS, CYPHER_EXECUTIONS, TRANSACTIONS, NODES_CREATED, EDGES_MERGED,
+        UNRESOLVED_DRS, LSAS_REJECTED
+    }
+
+    private static final LongAdder[] counters = new LongAdder[Counter.values().length];
+    // Indexed by LSA type. Types above 11 are counted as 0.
+    private static final LongAdder[] lsas = new LongAdder[12];
+    private static final LongAccumulator largestTransaction = new LongAccumulator(Math::max, 0);
+    private static final Map<String, LongAdder> stageNanos = new ConcurrentHashMap<>();
+    private static final Metrics instance = new Metrics();
+
+    static {
+        for (int i = 0 ; i < counters.length ; i++) counters[i] = new LongAdder();
+        for (int i = 0 ; i < lsas.length ; i++) lsas[i] = new LongAdder();
+    }
+
+    private Metrics() {
+    }
+
+    public static void count(Counter counter, long n) {
+        if (ENABLED) counters[counter.ordinal()].add(n);
+    }
+
+    public static void lsa(int type, int bytes) {
+        if (ENABLED) {
+            lsas[type < lsas.length ? type : 0].increment();
+            counters[Counter.BYTES_PARSED.ordinal()].add(bytes);
+        }
+    }
+
+    /**
+     * Record one committed write transaction containing this many nodes or edges.
+     */
+    public static void transaction(int size) {
+        if (ENABLED) {
+            counters[Counter.TRANSACTIONS.ordinal()].increment();
+            largestTransaction.accumulate(size);
+        }
+    }
+
+    /**
+     * @return a start time to pass to stage, or 0 when metrics are off.
+     */
+    public static long start() {
+        return ENABLED ? System.nanoTime() : 0;
+    }
+
+    public static void stage(String name, long start) {
+        if (ENABLED) stageNanos.computeIfAbsent(name, k -> new LongAdder()).add(System.nanoTime() - start);
+    }
+
+    public static void register() {
+        if (!ENABLED) return;
+        try {
+            ManagementFactory.getPlatformMBeanServer().registerMBean(instance,
+                    new ObjectName("com.wjholden.ospf:type=Metrics"));
+        } catch (JMException ex) {
+            System.err.println("Could not register the metrics MBean: " + ex);
+        }
+    }
+
+    public static Metrics getInstance() {
+        return instance;
+    }
+
+    @Override
+    public Map<String, Long> getCounters() {
+        final Map<String, Long> values = new TreeMap<>();
+        for (Counter c : Counter.values()) {
+            values.put(c.name().toLowerCase(), counters[c.ordinal()].sum());
+        }
+        for (int type = 1 ; type < lsas.length ; type++) {
+            if (lsas[type].sum() > 0) values.put("lsas_type_" + type, lsas[type].sum());
+        }
+        values.put("largest_transaction", largestTransaction.get());
+        return values;
+    }
+
+    @Override
+    public Map<String, Long> getStageMillis() {
+        final Map<String, Long> values = new TreeMap<>();
+        stageNanos.forEach((stage, nanos) -> values.put(stage, nanos.sum() / 1_000_000));
+        return values;
+    }
+
+    /**
+     * @return everything as one line of JSON.
+     */
+    @Override
+    public String getSummary() {
+        return "{\"counters\":" + json(getCounters()) + ",\"stageMillis\":" + json(getStageMillis()) + "}";
+    }
+
+    private static String json(Map<String, Long> values) {
+        final StringBuilder s = new StringBuilder("{");
+        values.forEach((k, v) -> {
+            if (s.length() > 1) s.append(',');
+            s.append('"').append(k).append("\":").append(v);
+        });
+        return s.append('}').toString();
+    }
+}
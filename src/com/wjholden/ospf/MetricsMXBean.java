@@ -0,0 +1,14 @@
+package com.wjholden.ospf;
+
+import java.util.Map;
+
+/**
+ * The JMX view of Metrics, registered as com.wjholden.ospf:type=Metrics when -Dospf.metrics=true.
+ */
+public interface MetricsMXBean {
+    Map<String, Long> getCounters();
+
+    Map<String, Long> getStageMillis();
+
+    String getSummary();
+}
@@ -2,8 +2,8 @@ package com.wjholden.ospf;
 
 import java.net.InetAddress;
 import java.net.UnknownHostException;
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
-import java.util.Arrays;
 import java.util.List;
 
 public class NetworkLsa extends Lsa {
@@ -12,16 +12,20 @@ public class NetworkLsa extends Lsa {
     public final int prefixLength;
 
     public NetworkLsa(byte[] lsa) throws UnknownHostException {
+        this(ByteBuffer.wrap(lsa));
+    }
+
+    public NetworkLsa(ByteBuffer lsa) throws UnknownHostException {
         super(lsa);
-        designatedRouter = InetAddress.getByAddress(Arrays.copyOfRange(lsa, 4, 8));
-        mask =  InetAddress.getByAddress(Arrays.copyOfRange(lsa, 20, 24));
+        designatedRouter = Lsa.toInetAddress(buffer.getInt(4));
+        mask = Lsa.toInetAddress(buffer.getInt(20));
 
         final int base = 6 * 4;
-        for (int i = base ; i < lsa.length ; i += 4) {
-            InetAddress r = InetAddress.getByAddress(Arrays.copyOfRange(lsa, i, i + 4));
+        for (int i = base ; i < length ; i += 4) {
+            InetAddress r = Lsa.toInetAddress(buffer.getInt(i));
             attachedRouters.add(r);
         }
-        assert(attachedRouters.size() == (lsa.length - base) / 4);
+        assert(attachedRouters.size() == (length - base) / 4);
 
         this.prefixLength = getPrefixLength(mask);
         this.prefix = getPrefixAddress(designatedRouter, mask);
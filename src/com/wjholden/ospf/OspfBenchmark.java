@@ -0,0 +1,112 @@
+package com.wjholden.ospf;
+
+import org.neo4j.graphdb.GraphDatabaseService;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+/**
+ * Times the hot paths of the analyzer against generated LSDBs of increasing size.
+ *
+ * Usage: OspfBenchmark [sizes], where sizes is a comma-separated list of router counts
+ * (default 100,1000,10000,50000). The graph load stages run against an embedded Neo4j database and are skipped
+ * above -Dospf.bench.graphMax routers (default 10000). Each in-memory benchmark is warmed up and then repeated;
+ * the reported figure is the mean time per operation.
+ */
+public class OspfBenchmark {
+    private static final int WARMUP = Integer.getInteger("ospf.bench.warmup", 5);
+    private static final int ITERATIONS = Integer.getInteger("ospf.bench.iterations", 10);
+    private static final int GRAPH_MAX = Integer.getInteger("ospf.bench.graphMax", 10000);
+
+    // Results are folded in here so that the JIT cannot throw the work away.
+    private static volatile long sink;
+
+    public static void main(String[] args) throws IOException {
+        final String sizes = args.length > 0 ? args[0] : "100,1000,10000,50000";
+        GraphDatabaseService graphDb = null;
+
+        for (String size : sizes.split(",")) {
+            final int routers = Integer.parseInt(size.trim());
+            final List<byte[]> raw = TopologyGenerator.ofSize(routers).generate();
+            System.out.printf("%n%d routers, %d LSAs, %d bytes%n", routers, raw.size(),
+                    raw.stream().mapToLong(b -> b.length).sum());
+
+            final List<Lsa> lsdb = new ArrayList<>();
+            raw.forEach(b -> lsdb.add(Lsa.getInstance(b)));
+            final List<RouterLsa> routerLsas = OspfAnalyzer.routersOf(lsdb);
+            final List<NetworkLsa> networkLsas = OspfAnalyzer.networksOf(lsdb);
+
+            bench("Lsa.getInstance", raw.size(), () -> {
+                long h = 0;
+                for (byte[] b : raw) h += Lsa.getInstance(b).length;
+                return h;
+            });
+            bench("Lsa.getCompactInstance", raw.size(), () -> {
+                long h = 0;
+                for (byte[] b : raw) h += Lsa.getCompactInstance(ByteBuffer.wrap(b)).length;
+                return h;
+            });
+            bench("RouterLsa.getAdjacentRouters", routerLsas.size(), () -> {
+                long h = 0;
+                for (RouterLsa r : routerLsas) h += r.getAdjacentRouters().size();
+                return h;
+            });
+            bench("RouterLsa.getAdjacentNetworks", routerLsas.size(), () -> {
+                long h = 0;
+                for (RouterLsa r : routerLsas) h += r.getAdjacentNetworks().size();
+                return h;
+            });
+            bench("RouterLsa.getStubs", routerLsas.size(), () -> {
+                long h = 0;
+                for (RouterLsa r : routerLsas) h += r.getStubs().size();
+                return h;
+            });
+            bench("DR resolution (trie)", routerLsas.size(), () -> {
+                final PrefixTrie<NetworkLsa> trie = OspfAnalyzer.networkTrie(networkLsas);
+                final AtomicInteger unresolved = new AtomicInteger();
+                long h = 0;
+                for (RouterLsa r : routerLsas) h += OspfAnalyzer.transportEdges(r, trie, unresolved).size();
+                return h + unresolved.get();
+            });
+            bench("Topology.build", 1, () -> (long) Topology.build(routerLsas, networkLsas).edgeCount());
+            final SpfEngine spf = new SpfEngine(Topology.build(routerLsas, networkLsas));
+            final int roots = Math.min(100, spf.getTopology().routerCount());
+            bench("SpfEngine.compute", roots, () -> {
+                long h = 0;
+                for (int root = 0 ; root < roots ; root++) h += spf.compute(root).dist.length;
+                return h;
+            });
+
+            if (routers <= GRAPH_MAX) {
+                if (graphDb == null) {
+                    graphDb = OspfAnalyzer.startDb();
+                    OspfAnalyzer.defineConstraints(graphDb);
+                }
+                OspfAnalyzer.clear(graphDb);
+                // These print their own node and edge rates.
+                OspfAnalyzer.createRouters(graphDb, routerLsas);
+                OspfAnalyzer.createNetworks(graphDb, networkLsas);
+                OspfAnalyzer.connectRouters(graphDb, routerLsas);
+                OspfAnalyzer.connectNetworks(graphDb, networkLsas);
+                OspfAnalyzer.connectTransport(graphDb, routerLsas, networkLsas);
+                OspfAnalyzer.connectStubs(graphDb, routerLsas);
+            }
+        }
+        System.exit(0);
+    }
+
+    private static void bench(String name, int operations, Supplier<Long> body) {
+        for (int i = 0 ; i < WARMUP ; i++) {
+            sink += body.get();
+        }
+        final long start = System.nanoTime();
+        for (int i = 0 ; i < ITERATIONS ; i++) {
+            sink += body.get();
+        }
+        final double nanos = (System.nanoTime() - start) / (double) ITERATIONS;
+        System.out.printf("  %-32s %12.1f ns/op %14.0f ops/s%n", name, nanos / operations, operations / nanos * 1e9);
+    }
+}
@@ -0,0 +1,242 @@
+package com.wjholden.ospf;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Builds an LSDB from a packet capture instead of SNMP. Reads classic pcap and pcapng files with Ethernet
+ * (optionally VLAN-tagged), raw IP, Linux cooked or loopback framing, and picks out OSPFv2 (IP protocol 89).
+ *
+ * LSAs are taken from Link State Update packets, keeping only the newest instance of each one. Database
+ * Description packets carry LSA headers only; they are used to report LSAs that were announced but whose bodies
+ * never appeared in the capture.
+ *
+ * The file is mapped a window at a time and read one record after another, so memory use depends on the size of
+ * the LSDB, not of the capture.
+ */
+public class PcapReader {
+    private static final long WINDOW = 256L << 20;
+    private static final int PCAPNG_SECTION = 0x0A0D0D0A;
+
+    private final FileChannel channel;
+    private final long size;
+    private MappedByteBuffer window;
+    private long windowStart;
+    private ByteOrder order = ByteOrder.BIG_ENDIAN;
+
+    private final Map<LsaKey, Lsa> lsdb = new HashMap<>();
+    private final Map<LsaKey, Integer> announced = new HashMap<>();
+    private long packets = 0, ospfPackets = 0, updates = 0, descriptions = 0, skipped = 0;
+
+    private PcapReader(FileChannel channel) throws IOException {
+        this.channel = channel;
+        this.size = channel.size();
+    }
+
+    public static Map<LsaKey, Lsa> read(Path path) throws IOException {
+        final long start = System.nanoTime();
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            final PcapReader reader = new PcapReader(channel);
+            reader.readFile();
+            final Map<LsaKey, Lsa> lsdb = reader.finish();
+            final double seconds = (System.nanoTime() - start) / 1e9;
+            System.out.printf("Read %d packets (%d OSPF: %d LS Update, %d DB Description) from %s in %.3f s " +
+                            "(%.0f packets/s); %d LSAs%n", reader.packets, reader.ospfPackets, reader.updates,
+                    reader.descriptions, path, seconds, reader.packets / seconds, lsdb.size());
+            return lsdb;
+        }
+    }
+
+    /**
+     * @return a buffer whose bytes from index 0 are the file's bytes from position, at least length long.
+     */
+    private ByteBuffer at(long position, int length) throws IOException {
+        if (window == null || position < windowStart || position + length > windowStart + window.capacity()) {
+            windowStart = position;
+            window = channel.map(FileChannel.MapMode.READ_ONLY, position,
+                    Math.min(Math.max(WINDOW, length), size - position));
+        }
+        final ByteBuffer b = window.duplicate();
+        b.position((int) (position - windowStart));
+        return b.slice().order(order);
+    }
+
+    private void readFile() throws IOException {
+        if (size < 24) {
+            throw new IOException("Too short to be a capture file.");
+        }
+        final int magic = at(0, 4).order(ByteOrder.BIG_ENDIAN).getInt(0);
+        if (magic == PCAPNG_SECTION) {
+            readPcapng();
+        } else {
+            readPcap(magic);
+        }
+    }
+
+    private void readPcap(int magic) throws IOException {
+        switch (magic) {
+            case 0xa1b2c3d4: case 0xa1b23c4d: order = ByteOrder.BIG_ENDIAN; break;
+            case 0xd4c3b2a1: case 0x4d3cb2a1: order = ByteOrder.LITTLE_ENDIAN; break;
+            default: throw new IOException("Not a pcap or pcapng file.");
+        }
+        final int linkType = at(0, 24).getInt(20) & 0xffff;
+        long position = 24;
+        while (position + 16 <= size) {
+            final int captured = at(position, 16).getInt(8);
+            if (captured < 0 || position + 16 + captured > size) break;
+            packet(linkType, at(position + 16, captured), captured);
+            position += 16 + captured;
+        }
+    }
+
+    private void readPcapng() throws IOException {
+        final int[] linkTypes = new int[256];
+        int interfaces = 0;
+        long position = 0;
+        while (position + 12 <= size) {
+            final ByteBuffer header = at(position, 12);
+            if (header.order(ByteOrder.BIG_ENDIAN).getInt(0) == PCAPNG_SECTION) {
+                // Each section sets its own byte order and numbers its interfaces from zero.
+                order = header.getInt(8) == 0x1A2B3C4D ? ByteOrder.BIG_ENDIAN : ByteOrder.LITTLE_ENDIAN;
+                interfaces = 0;
+            }
+            header.order(order);
+            final int type = header.getInt(0);
+            final int length = header.getInt(4);
+            if (length < 12 || position + length > size) break;
+            final ByteBuffer block = at(position, length);
+
+            if (type == 1 && interfaces < linkTypes.length) {
+                linkTypes[interfaces++] = block.getShort(8) & 0xffff;
+            } else if (type == 6) {
+                final int id = block.getInt(8);
+                final int captured = block.getInt(20);
+                if (id >= 0 && id < interfaces && captured >= 0 && 28 + captured <= length) {
+                    packet(linkTypes[id], slice(block, 28), captured);
+                }
+            } else if (type == 3 && interfaces > 0) {
+                packet(linkTypes[0], slice(block, 12), length - 16);
+            }
+            position += length;
+        }
+    }
+
+    private static ByteBuffer slice(ByteBuffer b, int offset) {
+        final ByteBuffer d = b.duplicate();
+        d.position(offset);
+        return d.slice();
+    }
+
+    private void packet(int linkType, ByteBuffer frame, int length) {
+        packets++;
+        frame.order(ByteOrder.BIG_ENDIAN);
+        int offset;
+        int etherType = 0x0800;
+        switch (linkType) {
+            case 1:             // Ethernet
+                if (length < 14) return;
+                etherType = frame.getShort(12) & 0xffff;
+                offset = 14;
+                while ((etherType == 0x8100 || etherType == 0x88a8) && offset + 4 <= length) {
+                    etherType = frame.getShort(offset + 2) & 0xffff;
+                    offset += 4;
+                }
+                break;
+            case 12: case 14: case 101:     // raw IP
+                offset = 0;
+                break;
+            case 113:           // Linux cooked capture
+                if (length < 16) return;
+                etherType = frame.getShort(14) & 0xffff;
+                offset = 16;
+                break;
+            case 276:           // Linux cooked capture v2
+                if (length < 20) return;
+                etherType = frame.getShort(0) & 0xffff;
+                offset = 20;
+                break;
+            case 0:             // BSD loopback; the address family is in host byte order
+                offset = 4;
+                break;
+            default:
+                return;
+        }
+        if (etherType != 0x0800 || offset + 20 > length) return;
+
+        // IPv4. Ignore fragments, which only happen with very large updates.
+        if ((frame.get(offset) >> 4) != 4 || Byte.toUnsignedInt(frame.get(offset + 9)) != 89) return;
+        final int flags = frame.getShort(offset + 6) & 0xffff;
+        if ((flags & 0x3fff) != 0) {
+            skipped++;
+            return;
+        }
+        final int ipEnd = Math.min(length, offset + (frame.getShort(offset + 2) & 0xffff));
+        ospf(frame, offset + 4 * (frame.get(offset) & 0x0f), ipEnd);
+    }
+
+    private void ospf(ByteBuffer frame, int offset, int end) {
+        if (offset + 24 > end || frame.get(offset) != 2) return;
+        ospfPackets++;
+        final int type = frame.get(offset + 1);
+        final int area = frame.getInt(offset + 12);
+        end = Math.min(end, offset + (frame.getShort(offset + 2) & 0xffff));
+
+        if (type == 4) {
+            updates++;
+            int count = offset + 28 <= end ? frame.getInt(offset + 24) : 0;
+            int p = offset + 28;
+            while (count-- > 0 && p + 20 <= end) {
+                final int lsaLength = frame.getShort(p + 18) & 0xffff;
+                if (lsaLength < 20 || p + lsaLength > end) {
+                    skipped++;
+                    break;
+                }
+                // Copy the LSA out of the mapping, which will move on.
+                final byte[] bytes = new byte[lsaLength];
+                final ByteBuffer source = frame.duplicate();
+                source.position(p);
+                source.get(bytes);
+                try {
+                    final Lsa lsa = LsaValidator.accept(ByteBuffer.wrap(bytes)) ? Lsa.getInstance(bytes) : null;
+                    if (lsa != null) {
+                        lsdb.merge(new LsaKey(area, lsa), lsa, (a, b) -> b.isNewerThan(a) ? b : a);
+                    }
+                } catch (RuntimeException ex) {
+                    // Unsupported types.
+                    skipped++;
+                }
+                p += lsaLength;
+            }
+        } else if (type == 2) {
+            descriptions++;
+            for (int p = offset + 32 ; p + 20 <= end ; p += 20) {
+                final LsaKey key = new LsaKey(area, Byte.toUnsignedInt(frame.get(p + 3)), frame.getInt(p + 4),
+                        frame.getInt(p + 8));
+                announced.merge(key, frame.getInt(p + 12), Math::max);
+            }
+        }
+    }
+
+    private Map<LsaKey, Lsa> finish() {
+        // An LSA whose newest instance has MaxAge has been flushed from the network.
+        lsdb.values().removeIf(lsa -> (lsa.age & 0x7fff) >= Lsa.MAX_AGE);
+        final long missing = announced.entrySet().stream()
+                .filter(e -> !lsdb.containsKey(e.getKey()) || lsdb.get(e.getKey()).sequenceNumber < e.getValue())
+                .count();
+        if (missing > 0) {
+            System.err.println(missing + " LSAs were announced in Database Description packets but their newest " +
+                    "instance is not in the capture.");
+        }
+        if (skipped > 0) {
+            System.err.println("Skipped " + skipped + " fragmented packets or LSAs of unsupported types.");
+        }
+        return lsdb;
+    }
+}
@@ -0,0 +1,72 @@
+package com.wjholden.ospf;
+
+import org.neo4j.graphdb.GraphDatabaseService;
+import org.neo4j.graphdb.Result;
+import org.neo4j.graphdb.Transaction;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Remembers which LSDB a persistent graph database was built from, so that the next run can reconcile instead of
+ * rebuilding. The LSDB is kept as an LsdbSnapshot file next to the database, and the graph holds a single
+ * (:LSDB {name: "current"}) node with a version that counts up on every save and the snapshot's timestamp.
+ * If the two disagree (say, the last run died between writing them) the graph is not trusted.
+ */
+public final class PersistentStore {
+    private static final String SNAPSHOT = "lsdb.snapshot";
+
+    private PersistentStore() {
+    }
+
+    /**
+     * @return the LSDB the graph in this store was built from, or null if the graph has to be rebuilt.
+     */
+    public static Map<LsaKey, Lsa> previous(GraphDatabaseService graphDb, Path store) throws IOException {
+        final Path snapshot = store.resolve(SNAPSHOT);
+        if (!Files.exists(snapshot)) {
+            return null;
+        }
+        Object timestamp = null, version = null;
+        try (Transaction tx = graphDb.beginTx();
+             Result result = tx.execute("MATCH (s:LSDB {name:'current'}) RETURN s.timestamp AS t, s.version AS v")) {
+            if (result.hasNext()) {
+                final Map<String, Object> row = result.next();
+                timestamp = row.get("t");
+                version = row.get("v");
+            }
+        }
+        if (timestamp == null || (Long) timestamp != LsdbSnapshot.timestamp(snapshot)) {
+            System.err.println("The graph in " + store + " does not match its LSDB snapshot; rebuilding.");
+            return null;
+        }
+        System.out.println("Reconciling against LSDB version " + version + " from " + new java.util.Date((Long) timestamp));
+        return LsdbSnapshot.read(snapshot);
+    }
+
+    /**
+     * Record that the graph now reflects this LSDB.
+     */
+    public static void save(GraphDatabaseService graphDb, Path store, Map<LsaKey, Lsa> lsdb) throws IOException {
+        final Path snapshot = store.resolve(SNAPSHOT);
+        // Write a new file and rename it over the old one. The old one may still be memory-mapped by the LSAs
+        // we just compared against, and must not be truncated underneath them.
+        final Path temporary = store.resolve(SNAPSHOT + ".tmp");
+        LsdbSnapshot.write(temporary, lsdb);
+        Files.move(temporary, snapshot, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+
+        final Map<String, Object> parameters = new HashMap<>();
+        parameters.put("timestamp", LsdbSnapshot.timestamp(snapshot));
+        parameters.put("lsas", lsdb.size());
+        try (Transaction tx = graphDb.beginTx()) {
+            tx.execute("MERGE (s:LSDB {name:'current'})\n" +
+                    "SET s.version = coalesce(s.version, 0) + 1, s.timestamp = $timestamp, s.lsas = $lsas",
+                    parameters);
+            tx.commit();
+        }
+    }
+}
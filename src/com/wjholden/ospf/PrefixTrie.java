@@ -0,0 +1,53 @@
+package com.wjholden.ospf;
+
+/**
+ * A binary trie of IPv4 prefixes, keyed on the address as an int, for longest-prefix match.
+ * Each lookup walks at most 32 nodes regardless of how many prefixes are stored.
+ */
+public class PrefixTrie<V> {
+    private static class TrieNode<V> {
+        TrieNode<V> zero, one;
+        V value;
+    }
+
+    private final TrieNode<V> root = new TrieNode<>();
+    private int size = 0;
+
+    public void put(int prefix, int prefixLength, V value) {
+        TrieNode<V> node = root;
+        for (int i = 0 ; i < prefixLength ; i++) {
+            if (bit(prefix, i) == 0) {
+                if (node.zero == null) node.zero = new TrieNode<>();
+                node = node.zero;
+            } else {
+                if (node.one == null) node.one = new TrieNode<>();
+                node = node.one;
+            }
+        }
+        if (node.value == null) size++;
+        node.value = value;
+    }
+
+    /**
+     * @return the value stored for the longest prefix containing address, or null if there is none.
+     */
+    public V longestMatch(int address) {
+        TrieNode<V> node = root;
+        V best = root.value;
+        for (int i = 0 ; i < 32 && node != null ; i++) {
+            node = bit(address, i) == 0 ? node.zero : node.one;
+            if (node != null && node.value != null) {
+                best = node.value;
+            }
+        }
+        return best;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    private static int bit(int address, int i) {
+        return (address >>> (31 - i)) & 1;
+    }
+}
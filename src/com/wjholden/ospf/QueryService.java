@@ -0,0 +1,332 @@
+package com.wjholden.ospf;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A small HTTP service that answers routing questions from an in-memory copy of the topology, so simple lookups
+ * do not need Cypher:
+ * <ul>
+ *     <li>/path?from=ROUTER&amp;to=ROUTER gives the cost, the first hops and one shortest path,</li>
+ *     <li>/neighbors?router=ROUTER lists the routers and networks a router links to, with costs,</li>
+ *     <li>/prefix?address=A.B.C.D[&amp;from=ROUTER] finds the longest matching prefix, who advertises it and,
+ *     if from is given, the route to it,</li>
+ *     <li>/stats gives request counts and latency percentiles per endpoint.</li>
+ * </ul>
+ * All answers are JSON. Requests read whichever snapshot is current when they start. update() builds a new
+ * snapshot and swaps it in, so a refresh never blocks or disturbs requests in flight.
+ */
+public class QueryService {
+    // SPF results are kept for this many recently used roots per snapshot. Override with -Dospf.http.cache=N.
+    private static final int CACHED_ROOTS = Integer.getInteger("ospf.http.cache", 256);
+    private static final int THREADS = Integer.getInteger("ospf.http.threads",
+            Runtime.getRuntime().availableProcessors());
+
+    /**
+     * Everything a request needs. Nothing in it changes after construction, except that SPF results are added
+     * to the cache as they are computed.
+     */
+    private static final class Snapshot {
+        final Topology topology;
+        final SpfEngine spf;
+        final PrefixTrie<Integer> prefixes = new PrefixTrie<>();
+        final Map<Integer, SpfEngine.ShortestPathTree> trees = Collections.synchronizedMap(new TreeCache());
+
+        Snapshot(Topology topology) {
+            this.topology = topology;
+            this.spf = new SpfEngine(topology);
+            for (int p = 0 ; p < topology.prefixes.length ; p++) {
+                prefixes.put(topology.prefixAddresses[p], topology.prefixLengths[p], p);
+            }
+        }
+
+        SpfEngine.ShortestPathTree tree(int root) {
+            SpfEngine.ShortestPathTree tree = trees.get(root);
+            if (tree == null) {
+                // SPF runs outside the lock, so two requests for a new root may both compute it.
+                tree = spf.compute(root);
+                trees.put(root, tree);
+            }
+            return tree;
+        }
+    }
+
+    /**
+     * The SPF results of the CACHED_ROOTS most recently used roots, evicting the least recently used.
+     */
+    private static final class TreeCache extends LinkedHashMap<Integer, SpfEngine.ShortestPathTree> {
+        private static final long serialVersionUID = 1L;
+
+        TreeCache() {
+            super(16, 0.75f, true);
+        }
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Integer, SpfEngine.ShortestPathTree> eldest) {
+            return size() > CACHED_ROOTS;
+        }
+    }
+
+    /**
+     * Request latencies in power-of-two buckets of microseconds.
+     */
+    private static final class Histogram {
+        final LongAdder[] buckets = new LongAdder[40];
+
+        Histogram() {
+            for (int i = 0 ; i < buckets.length ; i++) buckets[i] = new LongAdder();
+        }
+
+        void record(long nanos) {
+            buckets[64 - Long.numberOfLeadingZeros(Math.max(1, nanos / 1000))].increment();
+        }
+
+        String toJson() {
+            final long[] counts = new long[buckets.length];
+            long total = 0;
+            for (int i = 0 ; i < counts.length ; i++) total += counts[i] = buckets[i].sum();
+            return "{\"count\":" + total + ",\"p50Micros\":" + percentile(counts, total, 0.5) +
+                    ",\"p99Micros\":" + percentile(counts, total, 0.99) +
+                    ",\"p999Micros\":" + percentile(counts, total, 0.999) + "}";
+        }
+
+        // The upper bound of the bucket the percentile falls into.
+        private static long percentile(long[] counts, long total, double p) {
+            long seen = 0;
+            for (int i = 0 ; i < counts.length ; i++) {
+                seen += counts[i];
+                if (seen > 0 && seen >= p * total) return 1L << i;
+            }
+            return 0;
+        }
+    }
+
+    private final AtomicReference<Snapshot> current = new AtomicReference<>();
+    private final Map<String, Histogram> latency = new LinkedHashMap<>();
+    private final HttpServer server;
+
+    public QueryService(int port, Topology topology) throws IOException {
+        update(topology);
+        // Headers and body go out in separate writes; without TCP_NODELAY each answer waits for a delayed ACK.
+        if (System.getProperty("sun.net.httpserver.nodelay") == null) {
+            System.setProperty("sun.net.httpserver.nodelay", "true");
+        }
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+        server.setExecutor(Executors.newFixedThreadPool(THREADS, r -> {
+            final Thread thread = new Thread(r, "ospf-http");
+            thread.setDaemon(true);
+            return thread;
+        }));
+        handle("/path", this::path);
+        handle("/neighbors", this::neighbors);
+        handle("/prefix", this::prefix);
+        handle("/stats", (snapshot, query) -> stats());
+        server.start();
+        System.out.println("Serving queries on http://" + server.getAddress().getHostString() + ":" +
+                server.getAddress().getPort() + "/");
+    }
+
+    public void update(Topology topology) {
+        current.set(new Snapshot(topology));
+    }
+
+    public void stop() {
+        server.stop(0);
+    }
+
+    private interface Handler {
+        String answer(Snapshot snapshot, Map<String, String> query);
+    }
+
+    private void handle(String context, Handler handler) {
+        final Histogram histogram = new Histogram();
+        latency.put(context, histogram);
+        server.createContext(context, exchange -> {
+            final long start = System.nanoTime();
+            int status = 200;
+            String body;
+            try {
+                body = handler.answer(current.get(), parse(exchange));
+            } catch (NoSuchElementException ex) {
+                status = 404;
+                body = "{\"error\":" + quote(ex.getMessage()) + "}";
+            } catch (IllegalArgumentException ex) {
+                status = 400;
+                body = "{\"error\":" + quote(ex.getMessage()) + "}";
+            } catch (RuntimeException ex) {
+                status = 500;
+                body = "{\"error\":" + quote(ex.toString()) + "}";
+            }
+            send(exchange, status, body);
+            histogram.record(System.nanoTime() - start);
+        });
+    }
+
+    private String path(Snapshot snapshot, Map<String, String> query) {
+        final Topology topology = snapshot.topology;
+        final int from = router(topology, query.get("from")), to = router(topology, query.get("to"));
+        final SpfEngine.ShortestPathTree tree = snapshot.tree(from);
+        if (!tree.reachable(to)) {
+            throw new NoSuchElementException(topology.names[to] + " is unreachable from " + topology.names[from]);
+        }
+
+        // Walk back from the destination along any edge that lies on a shortest path.
+        final Deque<String> path = new ArrayDeque<>();
+        for (int v = to ; v >= 0 && path.size() <= topology.nodeCount ; ) {
+            path.addFirst(topology.names[v]);
+            if (v == from) break;
+            int previous = -1;
+            for (int e = topology.offsets[v] ; e < topology.offsets[v + 1] && previous < 0 ; e++) {
+                final int u = topology.targets[e], r = topology.reverse[e];
+                if (r >= 0 && tree.reachable(u) && tree.dist[u] + topology.costs[r] == tree.dist[v]) previous = u;
+            }
+            v = previous;
+        }
+        return "{\"from\":" + quote(topology.names[from]) + ",\"to\":" + quote(topology.names[to]) + ",\"cost\":" +
+                tree.dist[to] + ",\"nextHops\":" + names(topology, tree.nextHops[to]) + ",\"path\":" +
+                strings(path) + "}";
+    }
+
+    private String neighbors(Snapshot snapshot, Map<String, String> query) {
+        final Topology topology = snapshot.topology;
+        final int u = router(topology, query.get("router"));
+        final StringBuilder s = new StringBuilder("{\"router\":").append(quote(topology.names[u]))
+                .append(",\"neighbors\":[");
+        for (int e = topology.offsets[u] ; e < topology.offsets[u + 1] ; e++) {
+            if (e > topology.offsets[u]) s.append(',');
+            final int v = topology.targets[e];
+            s.append("{\"name\":").append(quote(topology.names[v])).append(",\"type\":\"")
+                    .append(topology.isRouter(v) ? "ROUTER" : "NETWORK").append("\",\"cost\":")
+                    .append(topology.costs[e]).append('}');
+        }
+        return s.append("]}").toString();
+    }
+
+    private String prefix(Snapshot snapshot, Map<String, String> query) {
+        final Topology topology = snapshot.topology;
+        final String address = query.get("address");
+        if (address == null) throw new IllegalArgumentException("address is required");
+        final Integer p = snapshot.prefixes.longestMatch(Lsa.parseDottedQuad(address));
+        if (p == null) throw new NoSuchElementException("no route to " + address);
+
+        final StringBuilder s = new StringBuilder("{\"address\":").append(quote(address)).append(",\"prefix\":")
+                .append(quote(topology.prefixes[p])).append(",\"advertisers\":[");
+        for (int i = topology.prefixOffsets[p] ; i < topology.prefixOffsets[p + 1] ; i++) {
+            if (i > topology.prefixOffsets[p]) s.append(',');
+            s.append("{\"name\":").append(quote(topology.names[topology.prefixAdvertisers[i]])).append(",\"cost\":")
+                    .append(topology.prefixCosts[i]).append('}');
+        }
+        s.append(']');
+
+        if (query.containsKey("from")) {
+            final SpfEngine.ShortestPathTree tree = snapshot.tree(router(topology, query.get("from")));
+            int best = Integer.MAX_VALUE;
+            int[] hops = new int[0];
+            for (int i = topology.prefixOffsets[p] ; i < topology.prefixOffsets[p + 1] ; i++) {
+                final int v = topology.prefixAdvertisers[i];
+                if (!tree.reachable(v)) continue;
+                final int c = tree.dist[v] + topology.prefixCosts[i];
+                if (c < best) {
+                    best = c;
+                    hops = tree.nextHops[v];
+                } else if (c == best) {
+                    hops = SpfEngine.union(hops, tree.nextHops[v]);
+                }
+            }
+            if (best != Integer.MAX_VALUE) {
+                s.append(",\"cost\":").append(best).append(",\"nextHops\":").append(names(topology, hops));
+            }
+        }
+        return s.append('}').toString();
+    }
+
+    private String stats() {
+        final StringBuilder s = new StringBuilder("{");
+        latency.forEach((context, histogram) -> {
+            if (s.length() > 1) s.append(',');
+            s.append(quote(context)).append(':').append(histogram.toJson());
+        });
+        final Snapshot snapshot = current.get();
+        return s.append(",\"nodes\":").append(snapshot.topology.nodeCount).append(",\"cachedRoots\":")
+                .append(snapshot.trees.size()).append('}').toString();
+    }
+
+    private static int router(Topology topology, String name) {
+        if (name == null) throw new IllegalArgumentException("a router ID is required");
+        final int node = topology.indexOf(name);
+        if (node < 0 || !topology.isRouter(node)) throw new NoSuchElementException("unknown router " + name);
+        return node;
+    }
+
+    private static String names(Topology topology, int[] nodes) {
+        final List<String> names = new ArrayList<>(nodes.length);
+        for (int v : nodes) names.add(topology.names[v]);
+        return strings(names);
+    }
+
+    private static String strings(Collection<String> values) {
+        final StringBuilder s = new StringBuilder("[");
+        for (String value : values) {
+            if (s.length() > 1) s.append(',');
+            s.append(quote(value));
+        }
+        return s.append(']').toString();
+    }
+
+    /**
+     * @return the value as a JSON string literal, with quotes, backslashes and control characters escaped. Request
+     * parameters are echoed back in answers and error messages, so none of them can be trusted to be plain.
+     */
+    private static String quote(String value) {
+        if (value == null) return "null";
+        final StringBuilder s = new StringBuilder(value.length() + 2).append('"');
+        for (int i = 0 ; i < value.length() ; i++) {
+            final char c = value.charAt(i);
+            switch (c) {
+                case '"': s.append("\\\""); break;
+                case '\\': s.append("\\\\"); break;
+                case '\n': s.append("\\n"); break;
+                case '\r': s.append("\\r"); break;
+                case '\t': s.append("\\t"); break;
+                default:
+                    if (c < 0x20) s.append(String.format("\\u%04x", (int) c));
+                    else s.append(c);
+            }
+        }
+        return s.append('"').toString();
+    }
+
+    private static Map<String, String> parse(HttpExchange exchange) throws IOException {
+        final Map<String, String> query = new HashMap<>();
+        final String raw = exchange.getRequestURI().getRawQuery();
+        if (raw == null) return query;
+        for (String pair : raw.split("&")) {
+            final int eq = pair.indexOf('=');
+            if (eq > 0) {
+                query.put(URLDecoder.decode(pair.substring(0, eq), "UTF-8"),
+                        URLDecoder.decode(pair.substring(eq + 1), "UTF-8"));
+            }
+        }
+        return query;
+    }
+
+    private static void send(HttpExchange exchange, int status, String body) throws IOException {
+        final byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "application/json");
+        exchange.sendResponseHeaders(status, bytes.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(bytes);
+        }
+    }
+}
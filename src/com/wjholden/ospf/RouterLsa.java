@@ -4,6 +4,7 @@ import org.neo4j.cypher.internal.expressions.In;
 
 import java.net.InetAddress;
 import java.net.UnknownHostException;
+import java.nio.ByteBuffer;
 import java.util.*;
 
 public class RouterLsa extends Lsa {
@@ -12,26 +13,39 @@ public class RouterLsa extends Lsa {
     public final List<Link> adjacencies = new ArrayList<>();
 
     public RouterLsa(byte[] lsa) throws UnknownHostException {
+        this(ByteBuffer.wrap(lsa));
+    }
+
+    public RouterLsa(ByteBuffer lsa) throws UnknownHostException {
         super(lsa);
 
-        routerId = InetAddress.getByAddress(Arrays.copyOfRange(lsa, 4, 8));
+        routerId = InetAddress.getByAddress(address(4));
 
-        links = bytesToUInt(lsa[22], lsa[23]);
+        links = Short.toUnsignedInt(buffer.getShort(22));
         assert(links >= 0);
 
-        final int base = 6 * 4;
+        // Each link is 12 bytes, followed by 4 bytes for each of its TOS metrics, which we skip.
+        int offset = 6 * 4;
         for (int i = 0 ; i < links ; i++) {
-            final int offset = i * 12;
             Link link = new Link();
-            link.linkId = InetAddress.getByAddress(Arrays.copyOfRange(lsa, base + offset, base + offset + 4));
-            link.linkData = InetAddress.getByAddress(Arrays.copyOfRange(lsa, base + offset + 4, base + offset + 8));
-            link.type = Byte.toUnsignedInt(lsa[base + offset + 8]);
-            link.tos = Byte.toUnsignedInt(lsa[base + offset + 9]);
-            link.metric = bytesToUInt(lsa[base + offset + 10], lsa[base + offset + 11]);
+            link.linkId = InetAddress.getByAddress(address(offset));
+            link.linkData = InetAddress.getByAddress(address(offset + 4));
+            link.type = Byte.toUnsignedInt(buffer.get(offset + 8));
+            link.tos = Byte.toUnsignedInt(buffer.get(offset + 9));
+            link.metric = Short.toUnsignedInt(buffer.getShort(offset + 10));
             assert(link.metric > 0);
             assert(link.metric <= 65535);
             adjacencies.add(link);
+            offset += 12 + 4 * link.tos;
+        }
+    }
+
+    private byte[] address(int index) {
+        final byte[] address = new byte[4];
+        for (int i = 0 ; i < 4 ; i++) {
+            address[i] = buffer.get(index + i);
         }
+        return address;
     }
 
     public static class Link {
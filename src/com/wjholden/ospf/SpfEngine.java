@@ -0,0 +1,245 @@
+package com.wjholden.ospf;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.UncheckedIOException;
+import java.util.Arrays;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.Consumer;
+import java.util.stream.IntStream;
+
+/**
+ * Dijkstra's algorithm over a Topology, following the OSPF rules: transit networks are nodes whose edges to
+ * attached routers cost 0, stub networks are leaves, and equal-cost paths are all kept (ECMP).
+ * The engine holds no mutable state, so any number of threads can share one instance.
+ */
+public class SpfEngine {
+    private static final int[] NONE = new int[0];
+
+    private final Topology topology;
+
+    public SpfEngine(Topology topology) {
+        this.topology = topology;
+    }
+
+    public Topology getTopology() {
+        return topology;
+    }
+
+    /**
+     * The result of one SPF run. dist[v] is Integer.MAX_VALUE if v is unreachable. nextHops[v] are the routers
+     * the root forwards to for v, and is empty for the root itself and for networks the root is attached to.
+     */
+    public static final class ShortestPathTree {
+        public final int root;
+        public final int[] dist;
+        public final int[][] nextHops;
+
+        ShortestPathTree(int root, int[] dist, int[][] nextHops) {
+            this.root = root;
+            this.dist = dist;
+            this.nextHops = nextHops;
+        }
+
+        public boolean reachable(int node) {
+            return dist[node] != Integer.MAX_VALUE;
+        }
+    }
+
+    /**
+     * The best route to each of the topology's prefixes from one router. cost[p] is Integer.MAX_VALUE if
+     * prefix p is unreachable; an empty nextHops[p] means it is directly connected.
+     */
+    public static final class RoutingTable {
+        public final int root;
+        public final int[] cost;
+        public final int[][] nextHops;
+
+        RoutingTable(int root, int[] cost, int[][] nextHops) {
+            this.root = root;
+            this.cost = cost;
+            this.nextHops = nextHops;
+        }
+    }
+
+    public ShortestPathTree compute(int root) {
+        return compute(root, -1, -1);
+    }
+
+    /**
+     * Run SPF as if a node and/or a link had failed. Pass -1 to exclude nothing. Excluding edge e also excludes
+     * the edge in the other direction.
+     */
+    public ShortestPathTree compute(int root, int excludedNode, int excludedEdge) {
+        final int n = topology.nodeCount;
+        final int[] dist = new int[n];
+        final int[][] nextHops = new int[n][];
+        final boolean[] attached = new boolean[n];
+        final boolean[] done = new boolean[n];
+        Arrays.fill(dist, Integer.MAX_VALUE);
+        final int excludedReverse = excludedEdge >= 0 ? topology.reverse[excludedEdge] : -1;
+
+        dist[root] = 0;
+        nextHops[root] = NONE;
+        final LongHeap heap = new LongHeap();
+        heap.push(key(0, root));
+
+        while (!heap.isEmpty()) {
+            final int u = (int) heap.pop();
+            if (done[u]) continue;
+            done[u] = true;
+
+            for (int e = topology.offsets[u] ; e < topology.offsets[u + 1] ; e++) {
+                final int v = topology.targets[e];
+                if (v == excludedNode || e == excludedEdge || e == excludedReverse || done[v]) continue;
+
+                final int d = dist[u] + topology.costs[e];
+                final int[] hops;
+                if (u == root) {
+                    hops = topology.isRouter(v) ? new int[] {v} : NONE;
+                } else if (attached[u]) {
+                    // The root is on this network, so the attached routers are next hops themselves.
+                    hops = union(nextHops[u], new int[] {v});
+                } else {
+                    hops = nextHops[u];
+                }
+
+                if (d < dist[v]) {
+                    dist[v] = d;
+                    nextHops[v] = hops;
+                    attached[v] = u == root && !topology.isRouter(v);
+                    heap.push(key(d, v));
+                } else if (d == dist[v]) {
+                    nextHops[v] = union(nextHops[v], hops);
+                    attached[v] |= u == root && !topology.isRouter(v);
+                }
+            }
+        }
+        return new ShortestPathTree(root, dist, nextHops);
+    }
+
+    public RoutingTable routingTable(ShortestPathTree tree) {
+        final int prefixes = topology.prefixes.length;
+        final int[] cost = new int[prefixes];
+        final int[][] nextHops = new int[prefixes][];
+        for (int p = 0 ; p < prefixes ; p++) {
+            int best = Integer.MAX_VALUE;
+            int[] hops = NONE;
+            for (int i = topology.prefixOffsets[p] ; i < topology.prefixOffsets[p + 1] ; i++) {
+                final int v = topology.prefixAdvertisers[i];
+                if (!tree.reachable(v)) continue;
+                final int c = tree.dist[v] + topology.prefixCosts[i];
+                if (c < best) {
+                    best = c;
+                    hops = tree.nextHops[v];
+                } else if (c == best) {
+                    hops = union(hops, tree.nextHops[v]);
+                }
+            }
+            cost[p] = best;
+            nextHops[p] = hops;
+        }
+        return new RoutingTable(tree.root, cost, nextHops);
+    }
+
+    /**
+     * Compute the routing table of every router, in parallel on the given pool. Tables are handed to the consumer
+     * as they are finished (from several threads at once) rather than collected, because all of them together
+     * can be much larger than the topology.
+     */
+    public void computeAll(ForkJoinPool pool, Consumer<RoutingTable> consumer) throws InterruptedException {
+        try {
+            pool.submit(() -> IntStream.range(0, topology.routerCount).parallel()
+                    .forEach(root -> consumer.accept(routingTable(compute(root))))).get();
+        } catch (ExecutionException ex) {
+            throw new RuntimeException(ex.getCause());
+        }
+    }
+
+    /**
+     * Write every router's routing table as tab-separated lines: router, prefix, cost, next hops.
+     */
+    public void writeAll(ForkJoinPool pool, PrintWriter out) throws InterruptedException {
+        final long start = System.nanoTime();
+        computeAll(pool, table -> {
+            final StringBuilder s = new StringBuilder();
+            for (int p = 0 ; p < table.cost.length ; p++) {
+                if (table.cost[p] == Integer.MAX_VALUE) continue;
+                s.append(topology.names[table.root]).append('\t').append(topology.prefixes[p]).append('\t')
+                        .append(table.cost[p]).append('\t');
+                for (int i = 0 ; i < table.nextHops[p].length ; i++) {
+                    if (i > 0) s.append(',');
+                    s.append(topology.names[table.nextHops[p][i]]);
+                }
+                s.append('\n');
+            }
+            synchronized (out) {
+                out.write(s.toString());
+            }
+        });
+        out.flush();
+        if (out.checkError()) {
+            throw new UncheckedIOException(new IOException("Could not write the routing tables."));
+        }
+        OspfAnalyzer.report("spf", topology.routerCount, "routing tables", start);
+    }
+
+    // Heap entries sort by distance, then networks before routers at the same distance. Network-to-router edges
+    // cost 0, so this makes sure every equal-cost path into a router is seen before the router is settled.
+    private long key(int dist, int node) {
+        return ((long) dist << 33) | ((topology.isRouter(node) ? 1L : 0L) << 32) | node;
+    }
+
+    static int[] union(int[] a, int[] b) {
+        if (a.length == 0) return b;
+        if (b.length == 0 || a == b) return a;
+        final int[] merged = new int[a.length + b.length];
+        int i = 0, j = 0, k = 0;
+        while (i < a.length && j < b.length) {
+            if (a[i] < b[j]) merged[k++] = a[i++];
+            else if (a[i] > b[j]) merged[k++] = b[j++];
+            else { merged[k++] = a[i++]; j++; }
+        }
+        while (i < a.length) merged[k++] = a[i++];
+        while (j < b.length) merged[k++] = b[j++];
+        return k == merged.length ? merged : Arrays.copyOf(merged, k);
+    }
+
+    /**
+     * A binary min-heap of longs. The low 32 bits of each entry are the node.
+     */
+    static final class LongHeap {
+        private long[] heap = new long[64];
+        private int size = 0;
+
+        boolean isEmpty() {
+            return size == 0;
+        }
+
+        void push(long value) {
+            if (size == heap.length) heap = Arrays.copyOf(heap, size * 2);
+            int i = size++;
+            while (i > 0 && heap[(i - 1) / 2] > value) {
+                heap[i] = heap[(i - 1) / 2];
+                i = (i - 1) / 2;
+            }
+            heap[i] = value;
+        }
+
+        long pop() {
+            final long top = heap[0];
+            final long last = heap[--size];
+            int i = 0;
+            while (2 * i + 1 < size) {
+                int child = 2 * i + 1;
+                if (child + 1 < size && heap[child + 1] < heap[child]) child++;
+                if (heap[child] >= last) break;
+                heap[i] = heap[child];
+                i = child;
+            }
+            heap[i] = last;
+            return top;
+        }
+    }
+}
@@ -0,0 +1,235 @@
+package com.wjholden.ospf;
+
+import org.neo4j.graphdb.GraphDatabaseService;
+
+import java.net.InetAddress;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Loads the graph while the SNMP walks are still running. The walkers parse each row into an LSA and put it on a
+ * bounded queue; writer threads take LSAs off the queue in batches and write them. When the queue is full the
+ * walkers wait, so the backlog of parsed but unwritten LSAs is bounded by the queue size. If a writer fails, the
+ * walks are abandoned instead of waiting for a queue nobody drains.
+ *
+ * Nodes are MERGEd because either end of an edge may not have arrived yet. The one thing that cannot be written
+ * early is a router's edge to a transit network, because the network's prefix is only known from its network LSA.
+ * Those links are kept as ints and written once the walk is over, along with the summary and external LSAs.
+ *
+ * Targets may return different instances of the same LSA. Every instance of an LSA goes to the same writer, which
+ * keeps the bytes of the instance it last wrote; when a newer one arrives, the edges of the old one are deleted
+ * before the new ones are written. The old bytes are needed because an ABR's router LSAs for different areas all
+ * write to the same ROUTER node, so its edges cannot simply all be replaced.
+ *
+ * Memory is therefore not bounded by the queue alone but grows with the LSDB: a sequence number per LSA, a copy of
+ * every router and network LSA, the transit links of every router LSA, and every summary and external LSA. That is
+ * about the size of the LSDB itself, which is still far less than the Neo4j transactions a batch load holds, but
+ * it is O(LSDB).
+ */
+public class StreamingLoader {
+    // Override with -Dospf.stream.queue=N and -Dospf.stream.writers=N.
+    private static final int QUEUE_SIZE = Integer.getInteger("ospf.stream.queue", 10000);
+    private static final int WRITERS = Integer.getInteger("ospf.stream.writers", 4);
+
+    static final String ROUTER_NODES = "MERGE (:ROUTER {name:row.name})";
+    static final String ROUTER_EDGES = "MERGE (src:ROUTER {name:row.src})\n" +
+            "MERGE (dst:ROUTER {name:row.dst})\n" +
+            "MERGE (src)-[:LINKED {cost:row.cost}]->(dst)";
+    static final String NETWORK_EDGES = "MERGE (src:NETWORK {name:row.src})\n" +
+            "MERGE (dst:ROUTER {name:row.dst})\n" +
+            "MERGE (src)-[:LINKED {cost:row.cost}]->(dst)";
+    static final String STUB_EDGES = "MERGE (src:ROUTER {name:row.src})\n" +
+            "MERGE (dst:STUB {name:row.dst})\n" +
+            "MERGE (src)-[:LINKED {cost:row.cost}]->(dst)";
+
+    // Superseded edges are deleted one by one, by their ends and cost.
+    static final String STALE_ROUTER_EDGES = "MATCH (:ROUTER {name:row.src})-[l:LINKED {cost:row.cost}]->" +
+            "(:ROUTER {name:row.dst})\nDELETE l";
+    static final String STALE_NETWORK_EDGES = "MATCH (:NETWORK {name:row.src})-[l:LINKED {cost:row.cost}]->" +
+            "(:ROUTER {name:row.dst})\nDELETE l";
+    static final String STALE_STUB_EDGES = "MATCH (:ROUTER {name:row.src})-[l:LINKED {cost:row.cost}]->" +
+            "(:STUB {name:row.dst})\nDELETE l";
+
+    private final GraphDatabaseService graphDb;
+    // One queue per writer. An LSA always goes to the same queue, so its instances are written in order.
+    private final List<BlockingQueue<Map.Entry<LsaKey, Lsa>>> queues = new ArrayList<>();
+    // Newest sequence number seen per LSA, so that copies of the same LSA from several targets are written once.
+    private final Map<LsaKey, Integer> seen = new ConcurrentHashMap<>();
+    // Transit links per router LSA as {router ID, interface address, metric, interface address, metric, ...},
+    // resolved at the end against the network prefixes. A newer instance of the LSA replaces its links.
+    private final Map<LsaKey, int[]> transit = new ConcurrentHashMap<>();
+    // Type 3, 4, 5 and 7 LSAs, loaded at the end by connectSummaries and connectExternals.
+    private final Map<LsaKey, Lsa> summaries = new ConcurrentHashMap<>();
+    private final PrefixTrie<String> prefixes = new PrefixTrie<>();
+    private final AtomicLong written = new AtomicLong();
+    private volatile boolean finished = false;
+    // Set when a writer throws, so that the walks stop feeding queues that nobody drains.
+    private volatile boolean failed = false;
+
+    public StreamingLoader(GraphDatabaseService graphDb) {
+        this.graphDb = graphDb;
+    }
+
+    public void load(LsdbCollector collector, List<String> targets) throws InterruptedException {
+        final long start = System.nanoTime();
+        final ExecutorService writers = Executors.newFixedThreadPool(WRITERS);
+        final List<Future<?>> futures = new ArrayList<>();
+        for (int i = 0 ; i < WRITERS ; i++) {
+            final BlockingQueue<Map.Entry<LsaKey, Lsa>> queue =
+                    new ArrayBlockingQueue<>(Math.max(1, QUEUE_SIZE / WRITERS));
+            queues.add(queue);
+            futures.add(writers.submit(() -> {
+                try {
+                    return write(queue);
+                } catch (Throwable t) {
+                    failed = true;
+                    throw t;
+                }
+            }));
+        }
+
+        try {
+            collector.stream(targets, (area, lsa) -> {
+                final LsaKey key = new LsaKey(area, lsa);
+                final Integer previous = seen.putIfAbsent(key, lsa.sequenceNumber);
+                if (previous != null && (previous >= lsa.sequenceNumber || !seen.replace(key, previous,
+                        lsa.sequenceNumber))) {
+                    return;
+                }
+                // Wait for room, but give up if a writer has died: its queue would never drain. The exception fails
+                // this target's walk, and the writer's own exception is reported below.
+                final BlockingQueue<Map.Entry<LsaKey, Lsa>> queue = queues.get(Math.floorMod(key.hashCode(), WRITERS));
+                final Map.Entry<LsaKey, Lsa> entry = new AbstractMap.SimpleImmutableEntry<>(key, lsa);
+                try {
+                    do {
+                        if (failed) {
+                            throw new IllegalStateException("a graph writer failed");
+                        }
+                    } while (!queue.offer(entry, 100, TimeUnit.MILLISECONDS));
+                } catch (InterruptedException ex) {
+                    Thread.currentThread().interrupt();
+                    throw new CancellationException("interrupted while queueing an LSA");
+                }
+            });
+        } finally {
+            finished = true;
+            writers.shutdown();
+        }
+
+        for (Future<?> future : futures) {
+            try {
+                future.get();
+            } catch (ExecutionException ex) {
+                throw new RuntimeException("A graph writer failed.", ex.getCause());
+            }
+        }
+
+        OspfAnalyzer.report("streamLsas", (int) written.get(), "LSAs", start);
+
+        final AtomicInteger unresolved = new AtomicInteger();
+        final List<Map<String, Object>> rows = new ArrayList<>();
+        for (int[] links : transit.values()) {
+            for (int i = 1 ; i < links.length ; i += 2) {
+                final String network = prefixes.longestMatch(links[i]);
+                if (network != null) {
+                    rows.add(OspfAnalyzer.edge(Lsa.toDottedQuad(links[0]), network, links[i + 1]));
+                } else {
+                    unresolved.incrementAndGet();
+                    Metrics.count(Metrics.Counter.UNRESOLVED_DRS, 1);
+                }
+            }
+        }
+        OspfAnalyzer.mergeEdges(graphDb, "streamTransport", OspfAnalyzer.TRANSPORT_EDGES, rows);
+        if (unresolved.get() > 0) {
+            System.err.println("streamTransport: did not find a network LSA for " + unresolved.get() +
+                    " transit link(s).");
+        }
+        OspfAnalyzer.connectSummaries(graphDb, summaries.values());
+        OspfAnalyzer.connectExternals(graphDb, ExternalTable.of(summaries.values()));
+        OspfAnalyzer.report("stream", (int) written.get(), "LSAs", start);
+    }
+
+    private Void write(BlockingQueue<Map.Entry<LsaKey, Lsa>> queue) throws InterruptedException {
+        // The bytes of the instance of each router and network LSA this writer last wrote.
+        final Map<LsaKey, byte[]> previous = new HashMap<>();
+        final List<Map.Entry<LsaKey, Lsa>> drained = new ArrayList<>(OspfAnalyzer.BATCH_SIZE);
+        while (true) {
+            drained.clear();
+            // Check the flag before polling, so that nothing put on the queue before it was set can be missed.
+            final boolean done = finished;
+            final Map.Entry<LsaKey, Lsa> first = queue.poll(100, TimeUnit.MILLISECONDS);
+            if (first == null) {
+                if (done) return null;
+                continue;
+            }
+            drained.add(first);
+            queue.drainTo(drained, OspfAnalyzer.BATCH_SIZE - 1);
+
+            // Of several instances of an LSA only the last, newest one is written, and none if a newer one is
+            // already on its way.
+            final Map<LsaKey, Lsa> batch = new LinkedHashMap<>();
+            for (Map.Entry<LsaKey, Lsa> entry : drained) {
+                if (seen.get(entry.getKey()) == entry.getValue().sequenceNumber) {
+                    batch.put(entry.getKey(), entry.getValue());
+                }
+            }
+
+            final List<Map<String, Object>> staleRouterRows = new ArrayList<>();
+            final List<Map<String, Object>> staleNetworkRows = new ArrayList<>();
+            final List<Map<String, Object>> staleStubRows = new ArrayList<>();
+            final List<Map<String, Object>> routerNodes = new ArrayList<>();
+            final List<Map<String, Object>> routerRows = new ArrayList<>();
+            final List<Map<String, Object>> networkRows = new ArrayList<>();
+            final List<Map<String, Object>> stubRows = new ArrayList<>();
+            for (Map.Entry<LsaKey, Lsa> entry : batch.entrySet()) {
+                final Lsa lsa = entry.getValue();
+                if (lsa instanceof RouterLsa || lsa instanceof NetworkLsa) {
+                    final byte[] bytes = new byte[lsa.length];
+                    lsa.getBuffer().get(bytes);
+                    final byte[] before = previous.put(entry.getKey(), bytes);
+                    final Lsa old = before != null ? Lsa.getInstance(before) : null;
+                    if (old instanceof RouterLsa) {
+                        staleRouterRows.addAll(OspfAnalyzer.routerEdges((RouterLsa) old));
+                        staleStubRows.addAll(OspfAnalyzer.stubEdges((RouterLsa) old));
+                    } else if (old instanceof NetworkLsa) {
+                        staleNetworkRows.addAll(OspfAnalyzer.networkEdges((NetworkLsa) old));
+                    }
+                }
+
+                if (lsa instanceof RouterLsa) {
+                    final RouterLsa router = (RouterLsa) lsa;
+                    routerNodes.add(Collections.singletonMap("name", router.routerId.getHostAddress()));
+                    routerRows.addAll(OspfAnalyzer.routerEdges(router));
+                    stubRows.addAll(OspfAnalyzer.stubEdges(router));
+                    final Map<InetAddress, Integer> networks = router.getAdjacentNetworks();
+                    final int[] links = new int[1 + 2 * networks.size()];
+                    links[0] = Lsa.toInt(router.routerId);
+                    int i = 1;
+                    for (Map.Entry<InetAddress, Integer> network : networks.entrySet()) {
+                        links[i++] = Lsa.toInt(network.getKey());
+                        links[i++] = network.getValue();
+                    }
+                    transit.put(entry.getKey(), links);
+                } else if (lsa instanceof NetworkLsa) {
+                    final NetworkLsa network = (NetworkLsa) lsa;
+                    synchronized (prefixes) {
+                        prefixes.put(Lsa.toInt(network.prefix), network.prefixLength, network.getPrefix());
+                    }
+                    networkRows.addAll(OspfAnalyzer.networkEdges(network));
+                } else {
+                    summaries.put(entry.getKey(), lsa);
+                }
+            }
+            OspfAnalyzer.writeBatches(graphDb, STALE_ROUTER_EDGES, staleRouterRows);
+            OspfAnalyzer.writeBatches(graphDb, STALE_NETWORK_EDGES, staleNetworkRows);
+            OspfAnalyzer.writeBatches(graphDb, STALE_STUB_EDGES, staleStubRows);
+            OspfAnalyzer.writeBatches(graphDb, ROUTER_NODES, routerNodes);
+            OspfAnalyzer.writeBatches(graphDb, ROUTER_EDGES, routerRows);
+            OspfAnalyzer.writeBatches(graphDb, NETWORK_EDGES, networkRows);
+            OspfAnalyzer.writeBatches(graphDb, STUB_EDGES, stubRows);
+            written.addAndGet(batch.size());
+        }
+    }
+}
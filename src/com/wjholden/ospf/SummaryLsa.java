@@ -0,0 +1,36 @@
+package com.wjholden.ospf;
+
+import java.nio.ByteBuffer;
+
+/**
+ * A Type 3 (network summary) or Type 4 (ASBR summary) LSA, https://datatracker.ietf.org/doc/html/rfc2328#appendix-A.4.4.
+ * An ABR originates one of these for every inter-area prefix or ASBR, so there can be many; everything is kept
+ * as ints. For Type 4 the link state ID is the ASBR's router ID and the mask is unused.
+ */
+public class SummaryLsa extends Lsa {
+    public final int mask, prefixLength, metric;
+
+    public SummaryLsa(ByteBuffer lsa) {
+        super(lsa);
+        mask = buffer.getInt(20);
+        prefixLength = getPrefixLength(mask);
+        // The metric is the low 24 bits; the byte before it is zero. We ignore any TOS metrics that follow.
+        metric = buffer.getInt(24) & 0xffffff;
+    }
+
+    public int getPrefixAddress() {
+        return linkStateId & mask;
+    }
+
+    public String getPrefix() {
+        return toDottedQuad(getPrefixAddress()) + "/" + prefixLength;
+    }
+
+    @Override
+    public String toString() {
+        return type == 3 ?
+                String.format("[Summary %s; ABR=%s; Metric = %d]", getPrefix(), toDottedQuad(advertisingRouter), metric) :
+                String.format("[ASBR Summary %s; ABR=%s; Metric = %d]", toDottedQuad(linkStateId),
+                        toDottedQuad(advertisingRouter), metric);
+    }
+}
@@ -0,0 +1,226 @@
+package com.wjholden.ospf;
+
+import java.util.*;
+
+/**
+ * An immutable, array-based copy of the OSPF graph for algorithms that run outside of Neo4j.
+ *
+ * Nodes 0 to routerCount - 1 are routers and the rest are transit networks, named the same way as the ROUTER and
+ * NETWORK nodes in the graph database. Edges are stored in compressed sparse row (CSR) form: the edges leaving node
+ * u are offsets[u] to offsets[u + 1] - 1. Like the SPF calculation in RFC 2328 section 16.1, an edge is only
+ * included if both ends advertise it, and edges from a network to its attached routers cost 0.
+ *
+ * Stub networks are leaves hanging off routers; together with the transit networks they form the list of prefixes
+ * a routing table is made of.
+ */
+public final class Topology {
+    final int routerCount, nodeCount;
+    final String[] names;
+    final int[] offsets, sources, targets, costs, reverse;
+    // The same edges by destination: the edges into node v are inEdges[inOffsets[v] ...].
+    final int[] inOffsets, inEdges;
+
+    // Destination prefixes. Prefix p is advertised by nodes prefixAdvertisers[prefixOffsets[p] ...] at the
+    // matching prefixCosts.
+    final String[] prefixes;
+    final int[] prefixAddresses, prefixLengths;
+    final int[] prefixOffsets, prefixAdvertisers, prefixCosts;
+
+    private final Map<String, Integer> index;
+
+    private Topology(int routerCount, String[] names, List<int[]> edges, List<String> prefixes,
+                     List<int[]> prefixAddresses, List<List<int[]>> advertisers) {
+        this.routerCount = routerCount;
+        this.nodeCount = names.length;
+        this.names = names;
+
+        index = new HashMap<>(nodeCount * 4 / 3 + 1);
+        for (int i = 0 ; i < nodeCount ; i++) {
+            index.put(names[i], i);
+        }
+
+        edges.sort((a, b) -> a[0] != b[0] ? Integer.compare(a[0], b[0]) : Integer.compare(a[1], b[1]));
+        offsets = new int[nodeCount + 1];
+        sources = new int[edges.size()];
+        targets = new int[edges.size()];
+        costs = new int[edges.size()];
+        for (int e = 0 ; e < edges.size() ; e++) {
+            sources[e] = edges.get(e)[0];
+            targets[e] = edges.get(e)[1];
+            costs[e] = edges.get(e)[2];
+            offsets[sources[e] + 1]++;
+        }
+        for (int u = 0 ; u < nodeCount ; u++) {
+            offsets[u + 1] += offsets[u];
+        }
+
+        reverse = new int[edges.size()];
+        for (int e = 0 ; e < edges.size() ; e++) {
+            reverse[e] = -1;
+            for (int f = offsets[targets[e]] ; f < offsets[targets[e] + 1] ; f++) {
+                if (targets[f] == sources[e]) {
+                    reverse[e] = f;
+                    break;
+                }
+            }
+        }
+
+        inOffsets = new int[nodeCount + 1];
+        inEdges = new int[edges.size()];
+        for (int e = 0 ; e < edges.size() ; e++) {
+            inOffsets[targets[e] + 1]++;
+        }
+        for (int v = 0 ; v < nodeCount ; v++) {
+            inOffsets[v + 1] += inOffsets[v];
+        }
+        final int[] next = Arrays.copyOf(inOffsets, nodeCount);
+        for (int e = 0 ; e < edges.size() ; e++) {
+            inEdges[next[targets[e]]++] = e;
+        }
+
+        this.prefixes = prefixes.toArray(new String[0]);
+        this.prefixAddresses = new int[prefixes.size()];
+        this.prefixLengths = new int[prefixes.size()];
+        prefixOffsets = new int[prefixes.size() + 1];
+        int total = 0;
+        for (int p = 0 ; p < prefixes.size() ; p++) {
+            this.prefixAddresses[p] = prefixAddresses.get(p)[0];
+            this.prefixLengths[p] = prefixAddresses.get(p)[1];
+            prefixOffsets[p] = total;
+            total += advertisers.get(p).size();
+        }
+        prefixOffsets[prefixes.size()] = total;
+        prefixAdvertisers = new int[total];
+        prefixCosts = new int[total];
+        for (int p = 0 ; p < prefixes.size() ; p++) {
+            int i = prefixOffsets[p];
+            for (int[] a : advertisers.get(p)) {
+                prefixAdvertisers[i] = a[0];
+                prefixCosts[i] = a[1];
+                i++;
+            }
+        }
+    }
+
+    public static Topology build(Collection<RouterLsa> routerLsas, Collection<NetworkLsa> networkLsas) {
+        // An ABR has one router LSA per area. They all describe the same node.
+        final Map<Integer, List<RouterLsa>> routers = new TreeMap<>(Integer::compareUnsigned);
+        routerLsas.forEach(lsa -> routers.computeIfAbsent(Lsa.toInt(lsa.routerId), k -> new ArrayList<>()).add(lsa));
+        final Map<String, NetworkLsa> networks = new LinkedHashMap<>();
+        networkLsas.forEach(lsa -> networks.putIfAbsent(lsa.getPrefix(), lsa));
+
+        final String[] names = new String[routers.size() + networks.size()];
+        final Map<Integer, Integer> routerIndex = new HashMap<>();
+        int n = 0;
+        for (Integer id : routers.keySet()) {
+            routerIndex.put(id, n);
+            names[n++] = Lsa.toDottedQuad(id);
+        }
+        final Map<NetworkLsa, Integer> networkIndex = new IdentityHashMap<>();
+        final PrefixTrie<NetworkLsa> trie = new PrefixTrie<>();
+        for (NetworkLsa lsa : networks.values()) {
+            networkIndex.put(lsa, n);
+            names[n++] = lsa.getPrefix();
+            trie.put(Lsa.toInt(lsa.prefix), lsa.prefixLength, lsa);
+        }
+
+        // First collect every link in both directions, then keep the ones both ends agree on.
+        final Map<Long, Integer> pointToPoint = new HashMap<>();
+        final Map<Long, Integer> transit = new HashMap<>();
+        final Map<String, List<int[]>> stubs = new LinkedHashMap<>();
+        final Map<String, int[]> stubAddresses = new HashMap<>();
+        final List<int[]> edges = new ArrayList<>();
+
+        routers.forEach((id, lsas) -> {
+            final int u = routerIndex.get(id);
+            for (RouterLsa lsa : lsas) {
+                for (RouterLsa.Link link : lsa.adjacencies) {
+                    if (link.type == 1) {
+                        final Integer v = routerIndex.get(Lsa.toInt(link.linkId));
+                        if (v != null) {
+                            pointToPoint.merge(pair(u, v), link.metric, Math::min);
+                        }
+                    } else if (link.type == 2) {
+                        final NetworkLsa network = trie.longestMatch(Lsa.toInt(link.linkData));
+                        if (network != null) {
+                            transit.merge(pair(u, networkIndex.get(network)),
+                                    link.metric, Math::min);
+                        }
+                    } else if (link.type == 3) {
+                        final int mask = Lsa.toInt(link.linkData);
+                        final int address = Lsa.toInt(link.linkId) & mask;
+                        final String prefix = Lsa.toDottedQuad(address) + "/" + Lsa.getPrefixLength(mask);
+                        stubAddresses.putIfAbsent(prefix, new int[] {address, Lsa.getPrefixLength(mask)});
+                        stubs.computeIfAbsent(prefix, k -> new ArrayList<>()).add(new int[] {u, link.metric});
+                    }
+                }
+            }
+        });
+
+        pointToPoint.forEach((key, metric) -> {
+            final int u = (int) (key >>> 32), v = (int) (long) key;
+            if (pointToPoint.containsKey(pair(v, u))) {
+                edges.add(new int[] {u, v, metric});
+            }
+        });
+
+        final List<String> prefixes = new ArrayList<>();
+        final List<int[]> prefixAddresses = new ArrayList<>();
+        final List<List<int[]>> advertisers = new ArrayList<>();
+        for (NetworkLsa lsa : networks.values()) {
+            final int v = networkIndex.get(lsa);
+            for (java.net.InetAddress attached : lsa.attachedRouters) {
+                final Integer u = routerIndex.get(Lsa.toInt(attached));
+                if (u != null && transit.containsKey(pair(u, v))) {
+                    edges.add(new int[] {u, v, transit.get(pair(u, v))});
+                    edges.add(new int[] {v, u, 0});
+                }
+            }
+            prefixes.add(lsa.getPrefix());
+            prefixAddresses.add(new int[] {Lsa.toInt(lsa.prefix), lsa.prefixLength});
+            advertisers.add(Collections.singletonList(new int[] {v, 0}));
+        }
+        stubs.forEach((prefix, list) -> {
+            prefixes.add(prefix);
+            prefixAddresses.add(stubAddresses.get(prefix));
+            advertisers.add(list);
+        });
+
+        return new Topology(routers.size(), names, edges, prefixes, prefixAddresses, advertisers);
+    }
+
+    private static long pair(int u, int v) {
+        return ((long) u << 32) | (v & 0xffffffffL);
+    }
+
+    public int routerCount() {
+        return routerCount;
+    }
+
+    public int nodeCount() {
+        return nodeCount;
+    }
+
+    public int edgeCount() {
+        return targets.length;
+    }
+
+    public int prefixCount() {
+        return prefixes.length;
+    }
+
+    public boolean isRouter(int node) {
+        return node < routerCount;
+    }
+
+    public String name(int node) {
+        return names[node];
+    }
+
+    /**
+     * @return the node with this router ID or network prefix, or -1.
+     */
+    public int indexOf(String name) {
+        return index.getOrDefault(name, -1);
+    }
+}
@@ -0,0 +1,123 @@
+package com.wjholden.ospf;
+
+import java.nio.ByteBuffer;
+import java.util.*;
+
+/**
+ * Makes up a random but plausible OSPF area as raw Type 1 and Type 2 LSAs, for benchmarks and experiments.
+ *
+ * Routers are 10.0.0.1, 10.0.0.2, ... and are joined in a ring of point-to-point links plus extra random ones.
+ * Each broadcast segment is a /24 shared by two to five different routers, with the first as DR. Segments are
+ * numbered upward from 172.16.0.0; only the first 4096 fit in 172.16.0.0/12, and more carry on past 172.31.255.0.
+ * Every router also advertises some stub /24s from 100.64.0.0 upward. Costs are random but the same in
+ * both directions, so the LSDB is consistent.
+ */
+public class TopologyGenerator {
+    private final Random random;
+    private final int routers, pointToPoint, segments, stubsPerRouter;
+
+    public TopologyGenerator(long seed, int routers, int pointToPoint, int segments, int stubsPerRouter) {
+        if (routers < 2) {
+            throw new IllegalArgumentException("Need at least two routers.");
+        }
+        this.random = new Random(seed);
+        this.routers = routers;
+        this.pointToPoint = Math.max(pointToPoint, routers);
+        this.segments = segments;
+        this.stubsPerRouter = stubsPerRouter;
+    }
+
+    /**
+     * Reasonable defaults for an area of the given size: twice as many point-to-point links as routers,
+     * a segment per five routers, and two stubs each.
+     */
+    public static TopologyGenerator ofSize(int routers) {
+        return new TopologyGenerator(routers, routers, 2 * routers, routers / 5, 2);
+    }
+
+    public static int routerId(int i) {
+        return 0x0A000001 + i;
+    }
+
+    public List<byte[]> generate() {
+        // Links of router i as {type, link ID, link data, metric}.
+        final List<List<int[]>> links = new ArrayList<>();
+        for (int i = 0 ; i < routers ; i++) {
+            links.add(new ArrayList<>());
+        }
+
+        final Set<Long> seen = new HashSet<>();
+        for (int l = 0 ; l < pointToPoint ; l++) {
+            // The first links make a ring so that the area is connected.
+            final int u = l < routers ? l : random.nextInt(routers);
+            final int v = l < routers ? (l + 1) % routers : random.nextInt(routers);
+            if (u == v || !seen.add(Math.min(u, v) * (long) routers + Math.max(u, v))) continue;
+            final int metric = 1 + random.nextInt(100);
+            links.get(u).add(new int[] {1, routerId(v), routerId(u), metric});
+            links.get(v).add(new int[] {1, routerId(u), routerId(v), metric});
+        }
+
+        final List<byte[]> lsdb = new ArrayList<>();
+        for (int s = 0 ; s < segments ; s++) {
+            final int subnet = 0xAC100000 + (s << 8);
+            // Draw the members without replacement, so that no router is on the same segment twice.
+            final Set<Integer> members = new LinkedHashSet<>();
+            final int size = Math.min(routers, 2 + random.nextInt(4));
+            while (members.size() < size) {
+                members.add(random.nextInt(routers));
+            }
+            final int[] attached = new int[size];
+            int m = 0;
+            for (int r : members) {
+                attached[m] = routerId(r);
+                links.get(r).add(new int[] {2, subnet + 1, subnet + 1 + m, 1 + random.nextInt(100)});
+                m++;
+            }
+            lsdb.add(networkLsa(subnet + 1, 0xFFFFFF00, attached[0], attached));
+        }
+
+        int stub = 0x64400000;
+        for (int i = 0 ; i < routers ; i++) {
+            for (int k = 0 ; k < stubsPerRouter ; k++) {
+                links.get(i).add(new int[] {3, stub, 0xFFFFFF00, 1 + random.nextInt(10)});
+                stub += 0x100;
+            }
+            lsdb.add(routerLsa(routerId(i), links.get(i)));
+        }
+        return lsdb;
+    }
+
+    public static byte[] routerLsa(int routerId, List<int[]> links) {
+        final ByteBuffer lsa = header(1, routerId, routerId, 24 + 12 * links.size());
+        lsa.putShort((short) 0);
+        lsa.putShort((short) links.size());
+        for (int[] link : links) {
+            lsa.putInt(link[1]).putInt(link[2]).put((byte) link[0]).put((byte) 0).putShort((short) link[3]);
+        }
+        LsaValidator.setChecksum(lsa.array());
+        return lsa.array();
+    }
+
+    public static byte[] networkLsa(int designatedRouter, int mask, int advertisingRouter, int[] attached) {
+        final ByteBuffer lsa = header(2, designatedRouter, advertisingRouter, 24 + 4 * attached.length);
+        lsa.putInt(mask);
+        for (int r : attached) {
+            lsa.putInt(r);
+        }
+        LsaValidator.setChecksum(lsa.array());
+        return lsa.array();
+    }
+
+    private static ByteBuffer header(int type, int linkStateId, int advertisingRouter, int length) {
+        final ByteBuffer lsa = ByteBuffer.allocate(length);
+        lsa.putShort((short) 1);        // age
+        lsa.put((byte) 0x22);           // options: E and DC
+        lsa.put((byte) type);
+        lsa.putInt(linkStateId);
+        lsa.putInt(advertisingRouter);
+        lsa.putInt(0x80000001);         // initial sequence number
+        lsa.putShort((short) 0);        // checksum, filled in by LsaValidator.setChecksum
+        lsa.putShort((short) length);
+        return lsa;
+    }
+}
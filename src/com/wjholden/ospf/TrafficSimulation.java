@@ -0,0 +1,367 @@
+package com.wjholden.ospf;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.IntStream;
+
+/**
+ * Routes a traffic demand matrix over OSPF shortest paths and adds up the load on every link.
+ *
+ * A demand is a source, a destination and a rate. Either end may be a router ID or an address (or prefix) that is
+ * looked up in the topology's prefixes: traffic from an address enters at the routers advertising its prefix,
+ * traffic to an address leaves at whichever advertiser is closest, as it would in OSPF.
+ *
+ * Demands are grouped by destination, and each destination costs one SPF run over the reverse graph, no matter
+ * how many sources send to it. Traffic is then pushed from the farthest routers towards the destination, split
+ * evenly at each router over its equal-cost next hops. Destinations are spread over the pool, each worker
+ * adding into its own load array.
+ */
+public class TrafficSimulation {
+    private final Topology topology;
+    private final PrefixTrie<Integer> prefixes = new PrefixTrie<>();
+
+    // Demands as parallel arrays. A destination below nodeCount is a router, otherwise it is prefix
+    // destination - nodeCount.
+    private int[] destinations = new int[1024], sources = new int[1024];
+    private double[] rates = new double[1024];
+    private int demands = 0;
+    private double unresolved = 0;
+
+    public TrafficSimulation(Topology topology) {
+        this.topology = topology;
+        for (int p = 0 ; p < topology.prefixes.length ; p++) {
+            prefixes.put(topology.prefixAddresses[p], topology.prefixLengths[p], p);
+        }
+    }
+
+    public static final class Result {
+        // Load on each edge of the topology, in the same units as the demand rates.
+        public final double[] load;
+        public final double delivered, dropped;
+
+        Result(double[] load, double delivered, double dropped) {
+            this.load = load;
+            this.delivered = delivered;
+            this.dropped = dropped;
+        }
+    }
+
+    /**
+     * Read demands from a file with one "source destination rate" per line. Blank lines and lines starting with
+     * # are ignored.
+     */
+    public void read(Path path) throws IOException {
+        try (BufferedReader in = Files.newBufferedReader(path)) {
+            String line;
+            int number = 0;
+            while ((line = in.readLine()) != null) {
+                number++;
+                line = line.trim();
+                if (line.isEmpty() || line.startsWith("#")) continue;
+                final String[] fields = line.split("\\s+");
+                if (fields.length != 3) {
+                    throw new IOException(path + " line " + number + ": expected source, destination and rate");
+                }
+                add(fields[0], fields[1], Double.parseDouble(fields[2]));
+            }
+        }
+    }
+
+    /**
+     * @return false if the source or destination is not in the topology. The rate is then counted as dropped.
+     */
+    public boolean add(String source, String destination, double rate) {
+        final int destinationKey = destination(destination);
+        final int[] ingress = ingress(source);
+        if (destinationKey < 0 || ingress.length == 0) {
+            unresolved += rate;
+            return false;
+        }
+        for (int router : ingress) {
+            if (demands == sources.length) {
+                destinations = Arrays.copyOf(destinations, demands * 2);
+                sources = Arrays.copyOf(sources, demands * 2);
+                rates = Arrays.copyOf(rates, demands * 2);
+            }
+            destinations[demands] = destinationKey;
+            sources[demands] = router;
+            rates[demands] = rate / ingress.length;
+            demands++;
+        }
+        return true;
+    }
+
+    private int destination(String name) {
+        final int node = topology.indexOf(name);
+        if (node >= 0 && topology.isRouter(node)) return node;
+        final Integer p = lookup(name);
+        return p == null ? -1 : topology.nodeCount + p;
+    }
+
+    /**
+     * The routers traffic from this router or address enters the topology at.
+     */
+    private int[] ingress(String name) {
+        final int node = topology.indexOf(name);
+        if (node >= 0 && topology.isRouter(node)) return new int[] {node};
+        final Integer p = lookup(name);
+        if (p == null) return new int[0];
+        int[] routers = new int[0];
+        for (int i = topology.prefixOffsets[p] ; i < topology.prefixOffsets[p + 1] ; i++) {
+            final int v = topology.prefixAdvertisers[i];
+            if (topology.isRouter(v)) {
+                routers = SpfEngine.union(routers, new int[] {v});
+            } else {
+                // A transit network: every attached router is a way in.
+                for (int e = topology.offsets[v] ; e < topology.offsets[v + 1] ; e++) {
+                    routers = SpfEngine.union(routers, new int[] {topology.targets[e]});
+                }
+            }
+        }
+        return routers;
+    }
+
+    /**
+     * Demand files can be large, so names that are neither router IDs nor dotted quads are simply unresolved
+     * rather than looked up in DNS.
+     */
+    private Integer lookup(String name) {
+        final int slash = name.indexOf('/');
+        try {
+            return prefixes.longestMatch(Lsa.parseDottedQuad(slash < 0 ? name : name.substring(0, slash)));
+        } catch (IllegalArgumentException ex) {
+            return null;
+        }
+    }
+
+    public int size() {
+        return demands;
+    }
+
+    public Result simulate(ForkJoinPool pool) throws InterruptedException {
+        final long start = System.nanoTime();
+
+        // Group the demands by destination, in CSR form like the topology's edges.
+        final int keys = topology.nodeCount + topology.prefixes.length;
+        final int[] offsets = new int[keys + 1];
+        for (int i = 0 ; i < demands ; i++) offsets[destinations[i] + 1]++;
+        for (int k = 0 ; k < keys ; k++) offsets[k + 1] += offsets[k];
+        final int[] groupedSources = new int[demands];
+        final double[] groupedRates = new double[demands];
+        final int[] next = Arrays.copyOf(offsets, keys);
+        for (int i = 0 ; i < demands ; i++) {
+            final int j = next[destinations[i]]++;
+            groupedSources[j] = sources[i];
+            groupedRates[j] = rates[i];
+        }
+
+        final Worker total;
+        try {
+            total = pool.submit(() -> IntStream.range(0, keys).filter(k -> offsets[k] < offsets[k + 1]).parallel()
+                    .collect(() -> new Worker(topology), (w, k) -> w.route(k, offsets, groupedSources,
+                            groupedRates), Worker::add)).get();
+        } catch (ExecutionException ex) {
+            throw new RuntimeException(ex.getCause());
+        }
+        OspfAnalyzer.report("trafficSimulation", demands, "demands", start);
+        return new Result(total.load, total.delivered, total.dropped + unresolved);
+    }
+
+    /**
+     * The load array of one worker, and the scratch space for its reverse SPF runs. Betweenness uses it too.
+     */
+    static final class Worker {
+        final Topology topology;
+        final double[] load;
+        double delivered = 0, dropped = 0;
+
+        // dist[v] is the cost from v to the destination, and sink[v] whether traffic for it is delivered at v.
+        final int[] dist, sinkCost, order;
+        final boolean[] done, sink;
+        final double[] pending;
+        final SpfEngine.LongHeap heap = new SpfEngine.LongHeap();
+        int[] hopFirst = new int[16], hopSecond = new int[16], hopTarget = new int[16];
+
+        Worker(Topology topology) {
+            this.topology = topology;
+            load = new double[topology.targets.length];
+            dist = new int[topology.nodeCount];
+            sinkCost = new int[topology.nodeCount];
+            order = new int[topology.nodeCount];
+            done = new boolean[topology.nodeCount];
+            sink = new boolean[topology.nodeCount];
+            pending = new double[topology.nodeCount];
+        }
+
+        void route(int key, int[] offsets, int[] sources, double[] rates) {
+            final int settled = distances(key);
+            for (int i = offsets[key] ; i < offsets[key + 1] ; i++) {
+                if (dist[sources[i]] == Integer.MAX_VALUE) {
+                    dropped += rates[i];
+                } else {
+                    pending[sources[i]] += rates[i];
+                }
+            }
+            forward(settled);
+        }
+
+        /**
+         * Send one unit to router destination from every other router that can reach it.
+         * @return how many routers sent one.
+         */
+        int routeFromAll(int destination) {
+            final int settled = distances(destination);
+            int senders = 0;
+            for (int v = 0 ; v < topology.routerCount ; v++) {
+                if (v != destination && dist[v] != Integer.MAX_VALUE) {
+                    pending[v] = 1;
+                    senders++;
+                }
+            }
+            forward(settled);
+            return senders;
+        }
+
+        /**
+         * Reverse SPF towards destination key, a node or nodeCount + a prefix.
+         * @return how many nodes can reach it; they are order[0 ...], nearest first.
+         */
+        private int distances(int key) {
+            Arrays.fill(dist, Integer.MAX_VALUE);
+            Arrays.fill(sinkCost, Integer.MAX_VALUE);
+            Arrays.fill(done, false);
+            Arrays.fill(pending, 0);
+
+            // Every advertiser of the destination is a starting point, at the cost it advertises it with.
+            if (key < topology.nodeCount) {
+                sinkCost[key] = 0;
+            } else {
+                final int p = key - topology.nodeCount;
+                for (int i = topology.prefixOffsets[p] ; i < topology.prefixOffsets[p + 1] ; i++) {
+                    final int v = topology.prefixAdvertisers[i];
+                    sinkCost[v] = Math.min(sinkCost[v], topology.prefixCosts[i]);
+                }
+            }
+            for (int v = 0 ; v < topology.nodeCount ; v++) {
+                if (sinkCost[v] != Integer.MAX_VALUE) {
+                    dist[v] = sinkCost[v];
+                    heap.push(((long) dist[v] << 32) | v);
+                }
+            }
+
+            // SPF over the incoming edges, so dist is the cost of the best route to the destination.
+            int settled = 0;
+            while (!heap.isEmpty()) {
+                final int w = (int) heap.pop();
+                if (done[w]) continue;
+                done[w] = true;
+                order[settled++] = w;
+                for (int j = topology.inOffsets[w] ; j < topology.inOffsets[w + 1] ; j++) {
+                    final int e = topology.inEdges[j];
+                    final int v = topology.sources[e];
+                    final int d = dist[w] + topology.costs[e];
+                    if (!done[v] && d < dist[v]) {
+                        dist[v] = d;
+                        heap.push(((long) d << 32) | v);
+                    }
+                }
+            }
+            for (int v = 0 ; v < topology.nodeCount ; v++) {
+                sink[v] = sinkCost[v] != Integer.MAX_VALUE && dist[v] == sinkCost[v];
+            }
+            return settled;
+        }
+
+        /**
+         * Pass the pending traffic down from the farthest router, splitting it evenly over each router's next hops.
+         */
+        private void forward(int settled) {
+            // Router links cost at least 1, so next hops are always closer and handled after the router itself.
+            for (int i = settled - 1 ; i >= 0 ; i--) {
+                final int v = order[i];
+                if (!topology.isRouter(v) || pending[v] == 0) continue;
+                if (sink[v]) {
+                    delivered += pending[v];
+                    continue;
+                }
+                final int hops = nextHops(v);
+                final double share = pending[v] / hops;
+                for (int h = 0 ; h < hops ; h++) {
+                    load[hopFirst[h]] += share;
+                    if (hopSecond[h] >= 0) load[hopSecond[h]] += share;
+                    if (hopTarget[h] >= 0) pending[hopTarget[h]] += share;
+                    else delivered += share;
+                }
+            }
+        }
+
+        /**
+         * Find the equal-cost next hops of router v. A next hop across a transit network is the router on the far
+         * side, as in OSPF, so it takes two edges. A target of -1 means the traffic is delivered to the network.
+         */
+        private int nextHops(int v) {
+            int hops = 0;
+            for (int e = topology.offsets[v] ; e < topology.offsets[v + 1] ; e++) {
+                final int w = topology.targets[e];
+                if (dist[w] == Integer.MAX_VALUE || topology.costs[e] + dist[w] != dist[v]) continue;
+                if (topology.isRouter(w)) {
+                    hops = hop(hops, e, -1, w);
+                } else if (sink[w]) {
+                    hops = hop(hops, e, -1, -1);
+                } else {
+                    for (int f = topology.offsets[w] ; f < topology.offsets[w + 1] ; f++) {
+                        final int x = topology.targets[f];
+                        if (dist[x] != Integer.MAX_VALUE && topology.costs[f] + dist[x] == dist[w]) {
+                            hops = hop(hops, e, f, x);
+                        }
+                    }
+                }
+            }
+            return hops;
+        }
+
+        private int hop(int hops, int first, int second, int target) {
+            if (hops == hopFirst.length) {
+                hopFirst = Arrays.copyOf(hopFirst, hops * 2);
+                hopSecond = Arrays.copyOf(hopSecond, hops * 2);
+                hopTarget = Arrays.copyOf(hopTarget, hops * 2);
+            }
+            hopFirst[hops] = first;
+            hopSecond[hops] = second;
+            hopTarget[hops] = target;
+            return hops + 1;
+        }
+
+        void add(Worker other) {
+            for (int e = 0 ; e < load.length ; e++) load[e] += other.load[e];
+            delivered += other.delivered;
+            dropped += other.dropped;
+        }
+    }
+
+    /**
+     * Write the load on every link that carries traffic as tab-separated lines: from, to, cost, load.
+     * The busiest links come first.
+     */
+    public void write(Result result, PrintWriter out) {
+        final Integer[] edges = IntStream.range(0, result.load.length).filter(e -> result.load[e] > 0).boxed()
+                .toArray(Integer[]::new);
+        Arrays.sort(edges, (a, b) -> Double.compare(result.load[b], result.load[a]));
+        for (int e : edges) {
+            out.printf("%s\t%s\t%d\t%.3f%n", topology.names[topology.sources[e]],
+                    topology.names[topology.targets[e]], topology.costs[e], result.load[e]);
+        }
+        out.flush();
+        if (out.checkError()) {
+            throw new UncheckedIOException(new IOException("Could not write the link loads."));
+        }
+        System.out.printf("Delivered %.3f, dropped %.3f%n", result.delivered, result.dropped);
+    }
+}
@@ -0,0 +1,76 @@
+package com.wjholden.ospf;
+
+import java.util.*;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Run with assertions off or on; failures throw AssertionError either way.
+ */
+public class BetweennessTest {
+    private static final int S = 1, A = 2, B = 3, C1 = 4, C2 = 5, T = 6;
+
+    public static void main(String[] args) throws Exception {
+        ecmpSplitsPerHop();
+        System.out.println("BetweennessTest passed");
+    }
+
+    /**
+     * An asymmetric diamond: S reaches T at cost 3 through A, which has two equal-cost paths on to T (via C1 and
+     * C2), and through B, which has one. ECMP at S sends half of S to T each way, where counting paths would send
+     * 2/3 through A and 1/3 through B.
+     */
+    static void ecmpSplitsPerHop() throws Exception {
+        final Map<Integer, List<int[]>> links = new TreeMap<>();
+        link(links, S, A, 1);
+        link(links, S, B, 1);
+        link(links, A, C1, 1);
+        link(links, A, C2, 1);
+        link(links, C1, T, 1);
+        link(links, C2, T, 1);
+        link(links, B, T, 2);
+        final List<RouterLsa> routers = new ArrayList<>();
+        links.forEach((id, l) -> {
+            try {
+                routers.add(new RouterLsa(TopologyGenerator.routerLsa(TopologyGenerator.routerId(id), l)));
+            } catch (java.net.UnknownHostException ex) {
+                throw new AssertionError(ex);
+            }
+        });
+        final Topology topology = Topology.build(routers, Collections.emptyList());
+        final Betweenness scores = Betweenness.compute(topology, ForkJoinPool.commonPool());
+
+        // B is only ever between S and T. S splits S-to-T between A and B, and T splits T-to-S three ways between
+        // C1, C2 and B, so B carries 1/2 + 1/3. Counting paths gives 1/3 + 1/3.
+        check(scores.node[node(topology, B)], 1.0 / 2 + 1.0 / 3, "betweenness of B");
+        // The link S to B carries S-to-B and A-to-B whole, half of C1-to-B and of C2-to-B (C1 and C2 also have an
+        // equal-cost next hop through T), and half of S-to-T.
+        check(scores.edge[edge(topology, S, B)], 1 + 1 + 0.5 + 0.5 + 0.5, "load of S to B");
+        // The link S to A carries S-to-A, S-to-C1, S-to-C2 and B-to-A whole, half of B-to-C1 and of B-to-C2 (B also
+        // reaches them through T), and half of S-to-T.
+        check(scores.edge[edge(topology, S, A)], 1 + 1 + 1 + 1 + 0.5 + 0.5 + 0.5, "load of S to A");
+    }
+
+    private static void link(Map<Integer, List<int[]>> links, int u, int v, int cost) {
+        final int ru = TopologyGenerator.routerId(u), rv = TopologyGenerator.routerId(v);
+        links.computeIfAbsent(u, k -> new ArrayList<>()).add(new int[] {1, rv, ru, cost});
+        links.computeIfAbsent(v, k -> new ArrayList<>()).add(new int[] {1, ru, rv, cost});
+    }
+
+    private static int node(Topology topology, int router) {
+        return topology.indexOf(Lsa.toDottedQuad(TopologyGenerator.routerId(router)));
+    }
+
+    private static int edge(Topology topology, int u, int v) {
+        final int from = node(topology, u), to = node(topology, v);
+        for (int e = topology.offsets[from] ; e < topology.offsets[from + 1] ; e++) {
+            if (topology.targets[e] == to) return e;
+        }
+        throw new AssertionError("no link from " + u + " to " + v);
+    }
+
+    private static void check(double actual, double expected, String what) {
+        if (Math.abs(actual - expected) > 1e-9) {
+            throw new AssertionError(what + " is " + actual + ", expected " + expected);
+        }
+    }
+}
@@ -0,0 +1,74 @@
+package com.wjholden.ospf;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+
+/**
+ * Run with assertions off or on; failures throw AssertionError either way.
+ */
+public class PcapReaderTest {
+    public static void main(String[] args) throws Exception {
+        flushRemovesLsa();
+        System.out.println("PcapReaderTest passed");
+    }
+
+    /**
+     * A premature flush re-floods the LSA with the same sequence number and checksum but MaxAge. The flush is the
+     * newer instance (RFC 2328 section 13.1), so the LSA must not survive the capture.
+     */
+    static void flushRemovesLsa() throws IOException {
+        final List<byte[]> lsas = new TopologyGenerator(1, 3, 3, 0, 1).generate();
+        final byte[] live = lsas.get(0);
+        final byte[] flush = live.clone();
+        // The checksum does not cover the age, so it stays the same.
+        ByteBuffer.wrap(flush).putShort(0, (short) Lsa.MAX_AGE);
+
+        final Path capture = Files.createTempFile("flush", ".pcap");
+        try {
+            Files.write(capture, pcap(Arrays.asList(lsas, Collections.singletonList(flush))));
+            final Map<LsaKey, Lsa> lsdb = PcapReader.read(capture);
+            final LsaKey key = new LsaKey(0, Lsa.getInstance(live));
+            if (lsdb.containsKey(key)) {
+                throw new AssertionError("the flushed LSA " + key + " survived the capture");
+            }
+            if (lsdb.size() != lsas.size() - 1) {
+                throw new AssertionError("expected " + (lsas.size() - 1) + " LSAs, found " + lsdb.size());
+            }
+        } finally {
+            Files.delete(capture);
+        }
+    }
+
+    /**
+     * A little-endian pcap file with one Ethernet frame holding a Link State Update per list of LSAs, in area 0.
+     */
+    private static byte[] pcap(List<List<byte[]>> updates) throws IOException {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        final ByteBuffer header = ByteBuffer.allocate(24).order(ByteOrder.LITTLE_ENDIAN);
+        header.putInt(0xa1b2c3d4).putShort((short) 2).putShort((short) 4).putInt(0).putInt(0).putInt(65535).putInt(1);
+        out.write(header.array());
+        for (List<byte[]> update : updates) {
+            int length = 0;
+            for (byte[] lsa : update) length += lsa.length;
+            final int ospf = 28 + length, ip = 20 + ospf, frame = 14 + ip;
+            final ByteBuffer packet = ByteBuffer.allocate(frame);
+            packet.position(12);
+            packet.putShort((short) 0x0800);
+            packet.put((byte) 0x45).put((byte) 0).putShort((short) ip).putInt(0).put((byte) 1).put((byte) 89)
+                    .putShort((short) 0).putInt(0x0a000001).putInt(0xe0000005);
+            packet.put((byte) 2).put((byte) 4).putShort((short) ospf).putInt(0x0a000001).putInt(0).putLong(0)
+                    .putInt(0).putInt(update.size());
+            for (byte[] lsa : update) packet.put(lsa);
+            final ByteBuffer record = ByteBuffer.allocate(16).order(ByteOrder.LITTLE_ENDIAN);
+            record.putInt(0).putInt(0).putInt(frame).putInt(frame);
+            out.write(record.array());
+            out.write(packet.array());
+        }
+        return out.toByteArray();
+    }
+}